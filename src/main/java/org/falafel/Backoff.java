@@ -0,0 +1,199 @@
+package org.falafel;
+
+import org.slf4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * This class implements the backoff policy used before a failed request is
+ * retried. The delay grows exponentially with the number of consecutive
+ * failures up to a maximum delay that is specified for every role. The
+ * actual delay is chosen uniformly at random between zero and this value
+ * (full jitter), so that processes of the same role do not retry in
+ * lockstep. A single success resets the delay.
+ *
+ * Every role chooses a small base delay and uses the longest time it waits
+ * during a regular attempt as maximum delay. This way a retry after a
+ * problem never waits longer than a regular attempt.
+ *
+ * The delays are measured in real time. The simulation clock only scales
+ * the simulated work of the processes, so retries never spin without delay
+ * if the simulation runs as fast as possible.
+ *
+ * Every backoff policy is registered as MXBean, so the retry counts can be
+ * monitored (e.g. with JConsole).
+ */
+public class Backoff implements BackoffMXBean {
+
+    /** Get the Logger for the current class. */
+    private static final Logger LOGGER = getLogger(Backoff.class);
+    /** The largest exponent used to calculate the delay. */
+    private static final int MAXIMUM_EXPONENT = 30;
+
+    /** The role of the process using the policy. */
+    private final String role;
+    /** The delay (in milliseconds) used for the first retry. */
+    private final long baseDelay;
+    /** The maximum delay (in milliseconds) between two attempts. */
+    private final long maximumDelay;
+    /** The random generator used to choose the delays. */
+    private final Random random;
+    /** The name used to register the policy as MXBean. */
+    private final ObjectName name;
+    /** The number of failed attempts since the last success. */
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    /** The total number of retries. */
+    private final AtomicLong retries = new AtomicLong();
+    /** The total number of successful attempts. */
+    private final AtomicLong successes = new AtomicLong();
+    /** The delay (in milliseconds) chosen for the last retry. */
+    private final AtomicLong lastDelay = new AtomicLong();
+    /** The sum of all delays (in milliseconds). */
+    private final AtomicLong totalDelay = new AtomicLong();
+
+    /**
+     * Create a new backoff policy and register it as MXBean.
+     *
+     * @param role
+     *          The role of the process using the policy (e.g. worker)
+     * @param identifier
+     *          The identifier of the process using the policy
+     * @param baseDelay
+     *          The delay (in milliseconds) used for the first retry
+     * @param maximumDelay
+     *          The maximum delay (in milliseconds) between two attempts
+     */
+    public Backoff(final String role, final int identifier,
+                   final long baseDelay, final long maximumDelay) {
+        this.role = role;
+        this.baseDelay = baseDelay;
+        this.maximumDelay = maximumDelay;
+        random = SimulationClock.get().newRandom("Backoff" + role,
+                identifier);
+        name = register(role, identifier);
+    }
+
+    /**
+     * Register the policy as MXBean.
+     *
+     * @param type
+     *          The role of the process using the policy
+     * @param identifier
+     *          The identifier of the process using the policy
+     * @return The name of the registered MXBean or {@code null} if the
+     *         policy could not be registered
+     */
+    private ObjectName register(final String type, final int identifier) {
+        try {
+            ObjectName objectName = new ObjectName("org.falafel:type=Backoff,"
+                    + "role=" + type + ",id=" + identifier);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    objectName);
+            return objectName;
+        } catch (JMException e) {
+            LOGGER.warn("Could not register backoff metrics for " + type
+                    + " " + identifier + "!");
+            return null;
+        }
+    }
+
+    /**
+     * Remove the MXBean of this policy. This method should be called if the
+     * policy is no longer used.
+     */
+    public final void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.debug("Could not unregister backoff metrics!");
+        }
+    }
+
+    /**
+     * Wait before a failed attempt is retried. The delay is real time, the
+     * simulation clock does not change it.
+     *
+     * @throws InterruptedException
+     *          If the thread was interrupted while it was waiting
+     */
+    public final void pause() throws InterruptedException {
+        Thread.sleep(nextDelay());
+    }
+
+    /**
+     * Record a failed attempt and return how long the caller should wait
+     * before the next attempt.
+     *
+     * @return The delay (in milliseconds) until the next attempt
+     */
+    public final long nextDelay() {
+        int exponent = Math.min(consecutiveFailures.getAndIncrement(),
+                MAXIMUM_EXPONENT);
+        long ceiling = Math.min(maximumDelay, baseDelay << exponent);
+        long delay = (long) (random.nextDouble() * (ceiling + 1));
+
+        retries.incrementAndGet();
+        lastDelay.set(delay);
+        totalDelay.addAndGet(delay);
+        return delay;
+    }
+
+    /**
+     * Record a successful attempt. The next failure starts again with the
+     * base delay.
+     */
+    public final void reset() {
+        consecutiveFailures.set(0);
+        successes.incrementAndGet();
+    }
+
+    @Override
+    public final String getRole() {
+        return role;
+    }
+
+    @Override
+    public final long getBaseDelay() {
+        return baseDelay;
+    }
+
+    @Override
+    public final long getMaximumDelay() {
+        return maximumDelay;
+    }
+
+    @Override
+    public final int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    @Override
+    public final long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public final long getSuccesses() {
+        return successes.get();
+    }
+
+    @Override
+    public final long getLastDelay() {
+        return lastDelay.get();
+    }
+
+    @Override
+    public final long getTotalDelay() {
+        return totalDelay.get();
+    }
+}
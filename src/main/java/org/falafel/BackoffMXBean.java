@@ -0,0 +1,64 @@
+package org.falafel;
+
+/**
+ * This interface describes the metrics of a backoff policy that are
+ * published via JMX.
+ */
+public interface BackoffMXBean {
+
+    /**
+     * Return the role of the process using the backoff policy.
+     *
+     * @return The name of the role (e.g. worker or supplier)
+     */
+    String getRole();
+
+    /**
+     * Return the base delay of the backoff policy.
+     *
+     * @return The delay (in milliseconds) used for the first retry
+     */
+    long getBaseDelay();
+
+    /**
+     * Return the maximum delay of the backoff policy.
+     *
+     * @return The maximum delay (in milliseconds) between two attempts
+     */
+    long getMaximumDelay();
+
+    /**
+     * Return the number of failed attempts since the last success.
+     *
+     * @return The number of consecutive failed attempts
+     */
+    int getConsecutiveFailures();
+
+    /**
+     * Return the number of retries since the process started.
+     *
+     * @return The total number of retries
+     */
+    long getRetries();
+
+    /**
+     * Return the number of successful attempts since the process started.
+     *
+     * @return The total number of successful attempts
+     */
+    long getSuccesses();
+
+    /**
+     * Return the delay chosen for the last retry.
+     *
+     * @return The last delay (in milliseconds)
+     */
+    long getLastDelay();
+
+    /**
+     * Return the time spent waiting for retries.
+     *
+     * @return The sum of all delays (in milliseconds)
+     */
+    long getTotalDelay();
+}
@@ -0,0 +1,67 @@
+package org.falafel;
+
+import javafx.collections.ModifiableObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * This class implements an observable list that can replace several of its
+ * elements with a single change notification. A table showing the list is
+ * only refreshed once for all replaced elements.
+ *
+ * @param <E>
+ *          The type of the elements stored in the list
+ */
+public class BatchedObservableList<E> extends ModifiableObservableListBase<E> {
+
+    /** The elements of the list. */
+    private final ArrayList<E> elements = new ArrayList<>();
+
+    /**
+     * Replace several elements of the list. The listeners of the list are
+     * notified about all replacements in a single change.
+     *
+     * @param replacements
+     *          The new elements together with their positions in the list
+     */
+    public final void setEach(final Map<Integer, E> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        beginChange();
+        try {
+            for (Map.Entry<Integer, E> replacement : replacements.entrySet()) {
+                int index = replacement.getKey();
+                nextSet(index, elements.set(index, replacement.getValue()));
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public final E get(final int index) {
+        return elements.get(index);
+    }
+
+    @Override
+    public final int size() {
+        return elements.size();
+    }
+
+    @Override
+    protected final void doAdd(final int index, final E element) {
+        elements.add(index, element);
+    }
+
+    @Override
+    protected final E doSet(final int index, final E element) {
+        return elements.set(index, element);
+    }
+
+    @Override
+    protected final E doRemove(final int index) {
+        return elements.remove(index);
+    }
+}
@@ -38,6 +38,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -89,6 +90,9 @@ public final class Buyer extends Application {
     /** The data stored in the table for purchased items. */
     private static ObservableList<Purchase> purchased =
             FXCollections.observableArrayList();
+    /** The position of every purchase in the table for purchased items by
+     *  purchase id. */
+    private static PositionMap purchasedPositions = new PositionMap();
 
     /** Specify the different effect colors a buyer can purchase. */
     private static final ObservableList<String> EFFECT_CHOICES =
@@ -248,7 +252,7 @@ public final class Buyer extends Application {
 
             for (Serializable purchase : capi.read(purchaseContainer,
                     AnyCoordinator.newSelector(COUNT_ALL), TRY_ONCE, null)) {
-                purchaseId = ((Purchase) purchase).getPurchaseId().intValue();
+                purchaseId = ((Purchase) purchase).getPurchaseIdValue();
 
                 oldPurchases.put(purchaseId, (Purchase) purchase);
                 if (purchaseId > maxPurchaseId) {
@@ -284,7 +288,7 @@ public final class Buyer extends Application {
 
             /* Try to get the rockets for each outstanding purchase. */
             for (Purchase purchase : outstandingPurchases) {
-                purchaseId = purchase.getPurchaseId().intValue();
+                purchaseId = purchase.getPurchaseIdValue();
                 purchaseSize = purchase.getNumberRocketsProperty().intValue();
 
                 rocketTemplate = new Rocket(null, null, null, null, null, null,
@@ -335,7 +339,7 @@ public final class Buyer extends Application {
         );
         //CHECKSTYLE:ON
 
-        purchased.addAll(oldPurchases.values());
+        addPurchased(oldPurchases.values());
         try {
             capi.addContainerAspect(new BuyerRocketsDeliveredAspect(),
                     rocketContainer, new HashSet<>(asList(POST_WRITE)), null);
@@ -351,28 +355,36 @@ public final class Buyer extends Application {
      */
     public static void setPurchaseStatusToShipped(final int purchaseId) {
         Platform.runLater(() -> {
-            int purchaseToUpdateIndex = 0;
-            Purchase purchaseToUpdate = null;
+            int purchaseToUpdateIndex = purchasedPositions.get(purchaseId);
 
             /* We need to set the purchase in the ObservableArrayList.
                If we just change the status of the purchase in the list, then
                the GUI will not show the updated value. */
-            for (int purchase = 0; purchase < purchased.size(); purchase++) {
-                if (purchased.get(purchase).getPurchaseId().intValue()
-                        == purchaseId) {
-                    purchaseToUpdateIndex = purchase;
-                    purchaseToUpdate = purchased.get(purchase);
-                    break;
-                }
-            }
-
-            if (purchaseToUpdate != null) {
+            if (purchaseToUpdateIndex >= 0) {
+                Purchase purchaseToUpdate = purchased.get(
+                        purchaseToUpdateIndex);
                 purchaseToUpdate.setStatusToShipped();
                 purchased.set(purchaseToUpdateIndex, purchaseToUpdate);
             }
         });
     }
 
+    /**
+     * Add purchases to the table for purchased items.
+     *
+     * @param newPurchases
+     *          The purchases that should be added to the table
+     */
+    private static void addPurchased(
+            final Collection<Purchase> newPurchases) {
+        int position = purchased.size();
+        for (Purchase purchase : newPurchases) {
+            purchasedPositions.put(purchase.getPurchaseIdValue(), position);
+            position++;
+        }
+        purchased.addAll(newPurchases);
+    }
+
     /** Close resources handled by this buyer. */
     private void closeBuyer() {
         space.shutdown(true);
@@ -424,7 +436,7 @@ public final class Buyer extends Application {
                         container, TRY_ONCE, null, null, context);
                 capi.write(new Entry(purchase), purchaseContainer);
             }
-            purchased.addAll(purchases);
+            addPurchased(purchases);
             purchases.clear();
 
         } catch (MzsCoreException e) {
@@ -452,6 +464,7 @@ public final class Buyer extends Application {
             e.printStackTrace();
         }
         purchased.clear();
+        purchasedPositions.clear();
     }
 
     /**
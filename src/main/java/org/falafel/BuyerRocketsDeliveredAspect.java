@@ -41,7 +41,7 @@ public class BuyerRocketsDeliveredAspect extends AbstractContainerAspect {
                                         final int executionCount) {
 
         Rocket rocket = (Rocket) request.getEntries().get(0).getValue();
-        int purchaseId = rocket.getPurchase().getPurchaseId().intValue();
+        int purchaseId = rocket.getPurchase().getPurchaseIdValue();
 
         if (!purchases.contains(purchaseId)) {
             Buyer.setPurchaseStatusToShipped(purchaseId);
@@ -0,0 +1,152 @@
+package org.falafel;
+
+import org.mozartspaces.core.DefaultMzsCore;
+import org.mozartspaces.core.MzsCore;
+import org.slf4j.Logger;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * This class shares client cores between the short lived tasks of a process
+ * (e.g. suppliers) that access the same space. Creating a core is expensive,
+ * since every core starts its own thread pools and sockets. A task borrows
+ * the core for its target space with {@link #acquire(URI)} and returns it
+ * with {@link #release(URI)}. The core is shut down as soon as the last task
+ * returned it.
+ *
+ * A process that embeds a space registers its core with
+ * {@link #addLocalCore(MzsCore)}. Tasks that access the embedded space then
+ * borrow this core, so their requests are handled in process without a
+ * socket hop and without serializing the entries. Local cores are never
+ * shut down by the pool.
+ */
+public final class ClientCorePool {
+
+    /** Get the Logger for the current class. */
+    private static final Logger LOGGER = getLogger(ClientCorePool.class);
+    /** The pool used by the process. */
+    private static final ClientCorePool POOL = new ClientCorePool();
+
+    /** The cores of the pool together with their number of borrowers. */
+    private final Map<URI, PooledCore> cores = new HashMap<>();
+    /** The cores of the spaces embedded in the process. */
+    private final Map<URI, MzsCore> localCores = new HashMap<>();
+
+    /**
+     * Create the pool singleton.
+     */
+    private ClientCorePool() {
+    }
+
+    /**
+     * Return the pool of the process.
+     *
+     * @return The client core pool shared by all tasks of the process
+     */
+    public static ClientCorePool get() {
+        return POOL;
+    }
+
+    /**
+     * Borrow the core used to access a certain space. If there is no core
+     * for the space yet, a new core is created.
+     *
+     * @param space
+     *          The resource identifier of the target space
+     * @return The core used to access the space
+     */
+    public synchronized MzsCore acquire(final URI space) {
+        MzsCore localCore = localCores.get(space);
+        if (localCore != null) {
+            return localCore;
+        }
+        PooledCore pooledCore = cores.get(space);
+        if (pooledCore == null) {
+            LOGGER.debug("Create client core for " + space);
+            pooledCore = new PooledCore(
+                    DefaultMzsCore.newInstanceWithoutSpace());
+            cores.put(space, pooledCore);
+        }
+        pooledCore.references++;
+        return pooledCore.core;
+    }
+
+    /**
+     * Return a core borrowed with {@link #acquire(URI)}. The core is shut
+     * down if no other task uses it anymore.
+     *
+     * @param space
+     *          The resource identifier of the target space
+     */
+    public void release(final URI space) {
+        MzsCore unusedCore = null;
+        synchronized (this) {
+            if (localCores.containsKey(space)) {
+                return;
+            }
+            PooledCore pooledCore = cores.get(space);
+            if (pooledCore == null) {
+                LOGGER.error("Released core for " + space + " was not "
+                        + "borrowed!");
+                return;
+            }
+            pooledCore.references--;
+            if (pooledCore.references == 0) {
+                cores.remove(space);
+                unusedCore = pooledCore.core;
+            }
+        }
+        if (unusedCore != null) {
+            LOGGER.debug("Shut down client core for " + space);
+            unusedCore.shutdown(true);
+        }
+    }
+
+    /**
+     * Register the core of a space embedded in the process. Afterwards
+     * {@link #acquire(URI)} returns this core for the embedded space.
+     *
+     * @param core
+     *          The core containing the embedded space
+     */
+    public synchronized void addLocalCore(final MzsCore core) {
+        localCores.put(core.getConfig().getSpaceUri(), core);
+    }
+
+    /**
+     * Remove a core registered with {@link #addLocalCore(MzsCore)}. This
+     * method should be called before the embedded space is shut down.
+     *
+     * @param core
+     *          The core containing the embedded space
+     */
+    public synchronized void removeLocalCore(final MzsCore core) {
+        localCores.remove(core.getConfig().getSpaceUri());
+    }
+
+    /**
+     * This class stores a core of the pool together with the number of
+     * tasks using it.
+     */
+    private static final class PooledCore {
+
+        /** The pooled core. */
+        private final MzsCore core;
+        /** The number of tasks that currently use the core. */
+        private int references;
+
+        /**
+         * Create a new pool entry.
+         *
+         * @param core
+         *          The core stored in the pool
+         */
+        PooledCore(final MzsCore core) {
+            this.core = core;
+        }
+    }
+}
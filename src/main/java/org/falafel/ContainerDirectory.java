@@ -0,0 +1,78 @@
+package org.falafel;
+
+import org.mozartspaces.core.Capi;
+import org.mozartspaces.core.ContainerReference;
+import org.mozartspaces.core.MzsConstants.RequestTimeout;
+import org.mozartspaces.core.MzsCoreException;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class stores references to containers. The reference for a container
+ * is looked up in the space only once and then reused for all further
+ * requests. A reference should only be invalidated if the space containing
+ * the container was recreated.
+ *
+ * A directory can be shared by multiple threads.
+ */
+public class ContainerDirectory {
+
+    /** The API used to look up containers. */
+    private final Capi capi;
+    /** The cached container references for every known space. */
+    private final Map<URI, Map<String, ContainerReference>> spaces =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Create a new directory that uses the given API to look up containers.
+     *
+     * @param capi
+     *          The API used to look up containers that are not cached yet
+     */
+    public ContainerDirectory(final Capi capi) {
+        this.capi = capi;
+    }
+
+    /**
+     * Return the reference for the container with the given name.
+     *
+     * @param name
+     *          The name of the container
+     * @param space
+     *          The resource identifier of the space storing the container
+     * @return The reference for the container
+     * @throws MzsCoreException
+     *          If the container could not be found in the space
+     */
+    public final ContainerReference lookup(final String name,
+                                           final URI space)
+            throws MzsCoreException {
+        Map<String, ContainerReference> containers = spaces.get(space);
+        if (containers == null) {
+            spaces.putIfAbsent(space, new ConcurrentHashMap<>());
+            containers = spaces.get(space);
+        }
+
+        ContainerReference container = containers.get(name);
+        if (container == null) {
+            container = capi.lookupContainer(name, space,
+                    RequestTimeout.TRY_ONCE, null);
+            containers.put(name, container);
+        }
+        return container;
+    }
+
+    /**
+     * Forget all container references for the given space. This method should
+     * be called if a request fails because the space was recreated and the
+     * cached references are therefore no longer valid.
+     *
+     * @param space
+     *          The resource identifier of the space
+     */
+    public final void invalidate(final URI space) {
+        spaces.remove(space);
+    }
+}
@@ -0,0 +1,126 @@
+package org.falafel;
+
+import org.mozartspaces.capi3.AnyCoordinator;
+import org.mozartspaces.core.Capi;
+import org.mozartspaces.core.ContainerReference;
+import org.mozartspaces.core.MzsConstants.RequestTimeout;
+import org.mozartspaces.core.MzsCoreException;
+import org.slf4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.mozartspaces.capi3.Selector.COUNT_ALL;
+import static org.mozartspaces.core.MzsConstants.Container;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * This class publishes the fill levels and capacities of the containers of
+ * the factory as MXBean. The fill levels are counted every time they are
+ * read, so the containers are not touched as long as nobody looks at the
+ * metrics.
+ */
+public class ContainerFillLevels implements ContainerFillLevelsMXBean {
+
+    /** Get the Logger for the current class. */
+    private static final Logger LOGGER = getLogger(ContainerFillLevels.class);
+
+    /** The API used to count the entries of the containers. */
+    private final Capi capi;
+    /** The name used to register the fill levels as MXBean. */
+    private final ObjectName name;
+    /** The observed containers. */
+    private final Map<String, ContainerReference> containers =
+            new TreeMap<>();
+    /** The capacity of every observed container. */
+    private final Map<String, Integer> capacities = new TreeMap<>();
+
+    /**
+     * Create new fill level metrics and register them as MXBean.
+     *
+     * @param capi
+     *          The API used to access the containers
+     */
+    public ContainerFillLevels(final Capi capi) {
+        this.capi = capi;
+        ObjectName objectName = null;
+        try {
+            objectName = new ObjectName(
+                    "org.falafel:type=ContainerFillLevels");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Could not register container fill levels!");
+            objectName = null;
+        }
+        name = objectName;
+    }
+
+    /**
+     * Observe the fill level of a container.
+     *
+     * @param containerName
+     *          The name of the container
+     * @param container
+     *          The reference to the container
+     * @param capacity
+     *          The maximum number of entries of the container
+     */
+    public final synchronized void add(final String containerName,
+                                       final ContainerReference container,
+                                       final int capacity) {
+        containers.put(containerName, container);
+        capacities.put(containerName, capacity);
+    }
+
+    /**
+     * Remove the MXBean of the fill levels. This method should be called
+     * before the containers are destroyed.
+     */
+    public final void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.debug("Could not unregister container fill levels!");
+        }
+    }
+
+    @Override
+    public final synchronized Map<String, Integer> getFillLevels() {
+        Map<String, Integer> fillLevels = new TreeMap<>();
+        for (Map.Entry<String, ContainerReference> entry
+                : containers.entrySet()) {
+            int fillLevel;
+            try {
+                fillLevel = capi.test(entry.getValue(),
+                        AnyCoordinator.newSelector(COUNT_ALL),
+                        RequestTimeout.TRY_ONCE, null);
+            } catch (MzsCoreException e) {
+                LOGGER.debug("Could not count the entries of "
+                        + entry.getKey() + "!");
+                fillLevel = -1;
+            }
+            fillLevels.put(entry.getKey(), fillLevel);
+        }
+        return fillLevels;
+    }
+
+    @Override
+    public final synchronized Map<String, Integer> getCapacities() {
+        Map<String, Integer> limits = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : capacities.entrySet()) {
+            if (entry.getValue() == Container.UNBOUNDED) {
+                limits.put(entry.getKey(), -1);
+            } else {
+                limits.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return limits;
+    }
+}
@@ -0,0 +1,26 @@
+package org.falafel;
+
+import java.util.Map;
+
+/**
+ * This interface describes the fill levels of the containers of the factory
+ * that are published via JMX.
+ */
+public interface ContainerFillLevelsMXBean {
+
+    /**
+     * Return the number of entries currently stored in each container.
+     * Containers that could not be read have the fill level {@code -1}.
+     *
+     * @return The number of entries for every container
+     */
+    Map<String, Integer> getFillLevels();
+
+    /**
+     * Return the maximum number of entries of each container. Containers
+     * without a limit have the capacity {@code -1}.
+     *
+     * @return The capacity of every container
+     */
+    Map<String, Integer> getCapacities();
+}
@@ -0,0 +1,152 @@
+package org.falafel;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * This class counts effect charges by color and defect status. The factory
+ * keeps an inventory of all effect charges stored in the effect container
+ * and publishes a copy of it in the space. Workers read this copy to check
+ * if the effect charges needed for a purchase are available before they
+ * take anything.
+ */
+public class EffectInventory implements Serializable {
+
+    /** The number of effect charges for every color and defect status. */
+    private final int[] counts = new int[EffectColor.values().length * 2];
+
+    /**
+     * Create a new empty inventory.
+     */
+    public EffectInventory() {
+    }
+
+    /**
+     * Create a copy of an inventory.
+     *
+     * @param inventory
+     *          The inventory that should be copied
+     */
+    public EffectInventory(final EffectInventory inventory) {
+        System.arraycopy(inventory.counts, 0, counts, 0, counts.length);
+    }
+
+    /**
+     * Return the position of the counter for the given color and status.
+     *
+     * @param color
+     *          The color of the effect charges
+     * @param defect
+     *          The defect status of the effect charges
+     * @return The index of the counter
+     */
+    private static int index(final EffectColor color, final boolean defect) {
+        if (defect) {
+            return 2 * color.ordinal() + 1;
+        }
+        return 2 * color.ordinal();
+    }
+
+    /**
+     * Add an effect charge to the inventory.
+     *
+     * @param effect
+     *          The effect charge that should be counted
+     */
+    public final void add(final Effect effect) {
+        counts[index(effect.getColor(),
+                Boolean.TRUE.equals(effect.getStatus()))]++;
+    }
+
+    /**
+     * Add all effect charges of another inventory to this inventory.
+     *
+     * @param inventory
+     *          The inventory containing the effect charges that should be
+     *          added
+     */
+    public final void add(final EffectInventory inventory) {
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = counts[index] + inventory.counts[index];
+        }
+    }
+
+    /**
+     * Remove all effect charges of another inventory from this inventory.
+     *
+     * @param inventory
+     *          The inventory containing the effect charges that should be
+     *          removed
+     */
+    public final void remove(final EffectInventory inventory) {
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = counts[index] - inventory.counts[index];
+        }
+    }
+
+    /**
+     * Return the number of effect charges with the given color and status.
+     *
+     * @param color
+     *          The color of the effect charges
+     * @param defect
+     *          The defect status of the effect charges
+     * @return The number of effect charges
+     */
+    public final int getCount(final EffectColor color, final boolean defect) {
+        return counts[index(color, defect)];
+    }
+
+    /**
+     * Return the number of effect charges with the given color.
+     *
+     * @param color
+     *          The color of the effect charges
+     * @return The number of defect and working effect charges
+     */
+    public final int getCount(final EffectColor color) {
+        return getCount(color, false) + getCount(color, true);
+    }
+
+    /**
+     * Check if the inventory contains enough effect charges and reserve them.
+     * The effect charges are only removed if all colors are available.
+     *
+     * @param colors
+     *          The number of effect charges needed for every color
+     * @return {@code true} if enough effect charges were available,
+     *         {@code false} otherwise
+     */
+    public final boolean reserve(final Map<EffectColor, Integer> colors) {
+        for (Map.Entry<EffectColor, Integer> color : colors.entrySet()) {
+            if (getCount(color.getKey()) < color.getValue()) {
+                return false;
+            }
+        }
+        for (Map.Entry<EffectColor, Integer> color : colors.entrySet()) {
+            int missing = color.getValue();
+            for (boolean defect : new boolean[] {false, true}) {
+                int index = index(color.getKey(), defect);
+                int reserved = Math.min(counts[index], missing);
+                counts[index] = counts[index] - reserved;
+                missing = missing - reserved;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the string representation of the inventory.
+     *
+     * @return A string containing the number of effect charges per color
+     */
+    public final String toString() {
+        StringBuilder builder = new StringBuilder("Effects:");
+        for (EffectColor color : EffectColor.values()) {
+            builder.append(" ").append(color).append(": ")
+                    .append(getCount(color, false)).append(" (")
+                    .append(getCount(color, true)).append(" defect)");
+        }
+        return builder.toString();
+    }
+}
@@ -43,12 +43,11 @@ public class FinishedRocketAspects extends AbstractContainerAspect {
         List<Entry> entries = request.getEntries();
 
         @SuppressWarnings("unchecked")
-        ArrayList<Rocket> rockets
-                = (ArrayList<Rocket>) entries.get(0).getValue();
+        ArrayList<RocketHeader> rockets
+                = (ArrayList<RocketHeader>) entries.get(0).getValue();
 
-        for (Rocket rocket : rockets) {
+        for (RocketHeader rocket : rockets) {
             rocket.setPackageId(id);
-            FireWorks.updateOfARocketInRocketsTable(rocket);
         }
         id++;
 
@@ -2,8 +2,8 @@ package org.falafel;
 
 /* -- Imports -------------------------------------------------------------- */
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
@@ -21,16 +21,23 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.cell.ComboBoxTableCell;
 import javafx.scene.control.cell.TextFieldTableCell;
 import javafx.stage.Stage;
+import org.falafel.GuiUpdateBus.Counter;
+import org.falafel.GuiUpdateBus.RocketChange;
+import org.falafel.GuiUpdateBus.RocketList;
 import org.mozartspaces.capi3.AnyCoordinator;
 import org.mozartspaces.capi3.FifoCoordinator;
+import org.mozartspaces.capi3.LabelCoordinator;
 import org.mozartspaces.capi3.LindaCoordinator;
+import org.mozartspaces.capi3.QueryCoordinator;
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
 import org.mozartspaces.core.DefaultMzsCore;
+import org.mozartspaces.core.Entry;
 import org.mozartspaces.core.MzsConstants;
 import org.mozartspaces.core.MzsCore;
 import org.mozartspaces.core.MzsCoreException;
 import org.mozartspaces.core.RequestContext;
+import org.mozartspaces.core.TransactionReference;
 import org.mozartspaces.core.aspects.ContainerAspect;
 import org.mozartspaces.core.aspects.ContainerIPoint;
 import org.mozartspaces.core.aspects.SpaceAspect;
@@ -40,13 +47,19 @@ import org.slf4j.Logger;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Arrays.asList;
 import static org.falafel.MaterialType.Casing;
 import static org.falafel.MaterialType.Effect;
 import static org.falafel.MaterialType.Propellant;
 import static org.falafel.MaterialType.Wood;
+import static org.mozartspaces.capi3.Selector.COUNT_MAX;
 import static org.mozartspaces.core.MzsConstants.Container;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -59,12 +72,41 @@ import static org.slf4j.LoggerFactory.getLogger;
  */
 public class FireWorks extends Application {
 
+    /** The prefix of the system properties specifying the maximum number of
+     *  entries of a container (e.g. {@code fireworks.capacity.Casing}). */
+    public static final String CAPACITY_PROPERTY_PREFIX =
+            "fireworks.capacity.";
     /** Get the Logger for the current class. */
     private static final Logger LOGGER = getLogger(FireWorks.class);
+    /** The number of effect charges per color stored in the space. */
+    private static final EffectInventory EFFECT_INVENTORY =
+            new EffectInventory();
+    /** The changes of the user interface that were not shown yet. */
+    private static final GuiUpdateBus GUI_UPDATES = new GuiUpdateBus();
+    /** The id of the first rocket built in the factory. */
+    private static final int FIRST_ROCKET_ID = 1;
+    /** The time (in milliseconds) until the transaction replacing the
+     *  effect inventory in the space times out. */
+    private static final int INVENTORY_TRANSACTION_TIMEOUT = 3000;
+    /** The thread publishing the effect inventory in the space. Aspects
+     *  must not send requests to the space themselves, so they only
+     *  schedule the publication. */
+    private static final ExecutorService INVENTORY_PUBLISHER =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "inventory-publisher");
+                thread.setDaemon(true);
+                return thread;
+            });
+    /** Tells if a publication of the effect inventory is already
+     *  scheduled. */
+    private static final AtomicBoolean INVENTORY_PUBLICATION_PENDING =
+            new AtomicBoolean();
     /** The space where we want to store our Material. */
     private static MzsCore mozartSpace;
     /** Reference to the API for the space. */
     private static Capi capi;
+    /** The references to containers used by the factory. */
+    private static ContainerDirectory containerDirectory;
     /** The container for storing the casings. */
     private static ContainerReference casingContainer;
     /** The container for storing the effect charge supplies. */
@@ -73,6 +115,8 @@ public class FireWorks extends Application {
     private static ContainerReference propellantContainer;
     /** The container for storing the wood supplies. */
     private static ContainerReference woodContainer;
+    /** The container storing every rocket together with its materials. */
+    private static ContainerReference rocketParts;
     /** The container for storing the created rockets. */
     private static ContainerReference createdRockets;
     /** The container for storing the tested rockets. */
@@ -85,6 +129,10 @@ public class FireWorks extends Application {
     private static ContainerReference purchaseContainer;
     /** The container for storing the finished ordered rockets. */
     private static ContainerReference orderedRocketsContainer;
+    /** The container storing a copy of the effect inventory. */
+    private static ContainerReference effectInventoryContainer;
+    /** The metrics publishing the fill levels of the containers. */
+    private static ContainerFillLevels fillLevels;
     /** The running id for the suppliers. */
     private static int supplierId = 1;
     /** The running id for the materials. */
@@ -94,12 +142,18 @@ public class FireWorks extends Application {
     private static ObservableList<SupplyOrder> order =
             FXCollections.observableArrayList();
     /**  The data as an observable list for purchases. */
-    private static ObservableList<Purchase> purchases =
-            FXCollections.observableArrayList();
+    private static BatchedObservableList<Purchase> purchases =
+            new BatchedObservableList<>();
+    /** The position of every purchase in the purchase table by the key of
+     *  the purchase. Purchases are only appended to the table. */
+    private static PositionMap purchasePositions = new PositionMap();
 
     /**  The data as an observable list for rockets. */
-    private static ObservableList<Rocket> rockets =
-            FXCollections.observableArrayList();
+    private static BatchedObservableList<Rocket> rockets =
+            new BatchedObservableList<>();
+    /** The position of every rocket in the rocket table by rocket id. Rockets
+     *  are only appended to the table, so the positions never change. */
+    private static PositionMap rocketPositions = new PositionMap();
     /**  The data as an observable list for the trashed rockets. */
     private static ObservableList<Rocket> trashedRocketsList =
             FXCollections.observableArrayList();
@@ -403,64 +457,171 @@ public class FireWorks extends Application {
     /**
      * The faulty rocket is displayed in the trash table.
      *
-     * @param rocket which is trashed
+     * @param header the header of the rocket which is trashed
      */
-    public static void addRocketToTrash(final Rocket rocket) {
-        Platform.runLater(() -> {
-            trashedRocketsList.add(rocket);
-            numberTrashedRocketsProperty.set(trashedRocketsList.size());
-        });
+    public static void addRocketToTrash(final RocketHeader header) {
+        GUI_UPDATES.changeRocket(header, RocketList.TRASHED);
     }
 
     /**
      * Add packed rockets to the shipping list.
      *
-     * @param rockets rockets which are packed for shipping
+     * @param headers headers of the rockets which are packed for shipping
      */
     public static void addRocketsToFinishedContainer(
-                final ArrayList<Rocket> rockets) {
-        Platform.runLater(() -> {
-            packedRocketsList.addAll(rockets);
-            numberShippedRocketsProperty.set(packedRocketsList.size());
-        });
+                final ArrayList<RocketHeader> headers) {
+        for (RocketHeader header : headers) {
+            GUI_UPDATES.changeRocket(header, RocketList.PACKED);
+        }
     }
 
     /**
+     * Add a new rocket to the rocket table.
      *
-     *
-     * @param containerId defines which rocket table (created/tested, packed
-     *                    or thrown away) should be updated
-     * @param rocket the rocket to add to the container
+     * @param rocket the rocket to add to the table
      */
-    public static void addNewRocketToTable(final String containerId,
-                                           final Rocket rocket) {
-        Platform.runLater(() -> {
-            if (containerId.equals(createdRockets.getId())) {
-                rockets.add(rocket);
-                numberRocketsProperty.set(rockets.size());
-            }
-        });
+    public static void addNewRocketToTable(final Rocket rocket) {
+        GUI_UPDATES.addRocket(rocket);
     }
 
     /**
      * Updates the tested result of a rocket in the rocket table.
      *
-     * @param updatedRocket which has been tested
+     * @param header the header of the rocket which has been changed
      */
     public static void updateOfARocketInRocketsTable(
-            final Rocket updatedRocket) {
-        Platform.runLater(() -> {
-            for (int index = 0; index < rockets.size(); index++) {
-                Rocket rocket = rockets.get(index);
-                int id = rocket.getRocketId();
-                int newId = updatedRocket.getRocketId();
-                if (id == newId) {
-                    rockets.set(index, updatedRocket);
-                    break;
-                }
+            final RocketHeader header) {
+        GUI_UPDATES.changeRocket(header, RocketList.ROCKETS);
+    }
+
+    /**
+     * Show all changes collected since the last frame. This method is called
+     * once per frame on the JavaFX application thread. Every list of the
+     * user interface is changed at most once per call.
+     */
+    private static void applyGuiUpdates() {
+        casingsCounter += GUI_UPDATES.takeCounterDelta(Counter.CASINGS);
+        casingsCounterProperty.set(casingsCounter);
+        woodCounter += GUI_UPDATES.takeCounterDelta(Counter.WOOD);
+        woodCounterProperty.set(woodCounter);
+        propellantCounter += GUI_UPDATES.takeCounterDelta(
+                Counter.CLOSED_PROPELLANTS);
+        propellantCounterProperty.set(propellantCounter);
+        numberOpenPropellantCounter += GUI_UPDATES.takeCounterDelta(
+                Counter.OPENED_PROPELLANTS);
+        numberOpenPropellantCounterProperty.set(numberOpenPropellantCounter);
+        quantityOpenPropellantCounter += GUI_UPDATES.takeCounterDelta(
+                Counter.OPENED_PROPELLANT_QUANTITY);
+        quantityOpenPropellantCounterProperty.set(
+                quantityOpenPropellantCounter);
+        blueEffectCounter += GUI_UPDATES.takeCounterDelta(
+                Counter.BLUE_EFFECTS);
+        blueEffectCounterProperty.set(blueEffectCounter);
+        greenEffectCounter += GUI_UPDATES.takeCounterDelta(
+                Counter.GREEN_EFFECTS);
+        greenEffectCounterProperty.set(greenEffectCounter);
+        redEffectCounter += GUI_UPDATES.takeCounterDelta(Counter.RED_EFFECTS);
+        redEffectCounterProperty.set(redEffectCounter);
+
+        ArrayList<Rocket> newRockets = GUI_UPDATES.takeNewRockets();
+        if (!newRockets.isEmpty()) {
+            int position = rockets.size();
+            for (Rocket rocket : newRockets) {
+                rocketPositions.put(rocket.getRocketId(), position);
+                position++;
+            }
+            rockets.addAll(newRockets);
+            numberRocketsProperty.set(rockets.size());
+        }
+        Map<Integer, Rocket> changedRockets = new TreeMap<>();
+        ArrayList<Rocket> trashedRockets = new ArrayList<>();
+        ArrayList<Rocket> finishedRockets = new ArrayList<>();
+        for (RocketChange change : GUI_UPDATES.takeRocketChanges()) {
+            int index = indexOfRocket(change.getHeader().getRocketId());
+            if (index < 0) {
+                continue;
+            }
+            Rocket rocket = rockets.get(index);
+            rocket.update(change.getHeader());
+            changedRockets.put(index, rocket);
+            if (change.getList() == RocketList.TRASHED) {
+                trashedRockets.add(rocket);
+            } else if (change.getList() == RocketList.PACKED) {
+                finishedRockets.add(rocket);
             }
-        });
+        }
+        rockets.setEach(changedRockets);
+        if (!trashedRockets.isEmpty()) {
+            trashedRocketsList.addAll(trashedRockets);
+            numberTrashedRocketsProperty.set(trashedRocketsList.size());
+        }
+        if (!finishedRockets.isEmpty()) {
+            packedRocketsList.addAll(finishedRockets);
+            numberShippedRocketsProperty.set(packedRocketsList.size());
+        }
+
+        ArrayList<Purchase> newPurchases = GUI_UPDATES.takeNewPurchases();
+        if (!newPurchases.isEmpty()) {
+            int position = purchases.size();
+            for (Purchase purchase : newPurchases) {
+                purchasePositions.put(purchase.getKey(), position);
+                position++;
+            }
+            purchases.addAll(newPurchases);
+        }
+        Map<Integer, Purchase> changedPurchases = new TreeMap<>();
+        for (Purchase purchase : GUI_UPDATES.takeUpdatedPurchases()) {
+            int index = indexOfPurchase(purchase);
+            if (index >= 0) {
+                changedPurchases.put(index, purchase);
+            }
+        }
+        purchases.setEach(changedPurchases);
+    }
+
+    /**
+     * Find a rocket in the rocket table. This method has to be called on
+     * the JavaFX application thread.
+     *
+     * @param rocketId the id of the rocket
+     * @return The position of the rocket in the rocket table or {@code -1}
+     *         if the rocket is not part of the table
+     */
+    private static int indexOfRocket(final int rocketId) {
+        return rocketPositions.get(rocketId);
+    }
+
+    /**
+     * Find a purchase in the purchase table. This method has to be called on
+     * the JavaFX application thread.
+     *
+     * @param updatedPurchase a purchase with the same ids as the purchase in
+     *                        the table
+     * @return The position of the purchase in the purchase table or
+     *         {@code -1} if the purchase is not part of the table
+     */
+    private static int indexOfPurchase(final Purchase updatedPurchase) {
+        return purchasePositions.get(updatedPurchase.getKey());
     }
+
+    /**
+     * Load a rocket including all its materials from the rocket parts
+     * container.
+     *
+     * @param header the header of the rocket
+     * @return The rocket with the changes of the header applied
+     * @throws MzsCoreException if the rocket could not be read
+     */
+    public static Rocket loadRocket(final RocketHeader header)
+            throws MzsCoreException {
+        ArrayList<Rocket> parts = capi.read(rocketParts,
+                asList(Rocket.newIdSelector(header.getRocketId())),
+                MzsConstants.RequestTimeout.TRY_ONCE, null);
+        Rocket rocket = parts.get(0);
+        rocket.update(header);
+        return rocket;
+    }
+
     /**
      * Updates the counters in the GUI.
      *
@@ -474,15 +635,9 @@ public class FireWorks extends Application {
      */
     public static void changeOpenedPropellantLabels(final int number,
                                                     final int difference) {
-        Platform.runLater(() -> {
-            numberOpenPropellantCounter = numberOpenPropellantCounter + number;
-            quantityOpenPropellantCounter = quantityOpenPropellantCounter
-                    + difference;
-            numberOpenPropellantCounterProperty.set(
-                    numberOpenPropellantCounter);
-            quantityOpenPropellantCounterProperty.set(
-                    quantityOpenPropellantCounter);
-        });
+        GUI_UPDATES.addToCounter(Counter.OPENED_PROPELLANTS, number);
+        GUI_UPDATES.addToCounter(Counter.OPENED_PROPELLANT_QUANTITY,
+                difference);
     }
     /**
      * Updates the counters in the GUI.
@@ -493,10 +648,7 @@ public class FireWorks extends Application {
      *
      */
     public static void changeClosedPropellantLabels(final int difference) {
-        Platform.runLater(() -> {
-            propellantCounter = propellantCounter + difference;
-            propellantCounterProperty.set(propellantCounter);
-        });
+        GUI_UPDATES.addToCounter(Counter.CLOSED_PROPELLANTS, difference);
     }
 
     /**
@@ -508,14 +660,87 @@ public class FireWorks extends Application {
      *
      */
     public static void reduceCasingWood(final int difference) {
-        Platform.runLater(() -> {
-            casingsCounter = casingsCounter - difference;
-            casingsCounterProperty.set(casingsCounter);
-            woodCounter = woodCounter - difference;
-            woodCounterProperty.set(woodCounter);
-        });
+        GUI_UPDATES.addToCounter(Counter.CASINGS, -difference);
+        GUI_UPDATES.addToCounter(Counter.WOOD, -difference);
+    }
+
+
+    /**
+     * Add effect charges to the effect inventory and publish the new
+     * inventory in the space. This method should only be called after the
+     * transaction that wrote the effect charges was committed.
+     *
+     * @param effects
+     *          The effect charges written to the effect container
+     */
+    public static void addToEffectInventory(final EffectInventory effects) {
+        synchronized (EFFECT_INVENTORY) {
+            EFFECT_INVENTORY.add(effects);
+        }
+        schedulePublicationOfEffectInventory();
+    }
+
+    /**
+     * Remove effect charges from the effect inventory and publish the new
+     * inventory in the space. This method should only be called after the
+     * transaction that took the effect charges was committed.
+     *
+     * @param effects
+     *          The effect charges taken from the effect container
+     */
+    public static void removeFromEffectInventory(
+            final EffectInventory effects) {
+        synchronized (EFFECT_INVENTORY) {
+            EFFECT_INVENTORY.remove(effects);
+        }
+        schedulePublicationOfEffectInventory();
+    }
+
+    /**
+     * Publish the effect inventory in the background. Changes that arrive
+     * before the publication starts are published together.
+     */
+    private static void schedulePublicationOfEffectInventory() {
+        if (!INVENTORY_PUBLICATION_PENDING.getAndSet(true)) {
+            INVENTORY_PUBLISHER.execute(() -> {
+                INVENTORY_PUBLICATION_PENDING.set(false);
+                publishEffectInventory();
+            });
+        }
     }
 
+    /**
+     * Replace the copy of the effect inventory stored in the space. The old
+     * copy is taken and the new copy is written in the same transaction, so
+     * readers always find exactly one inventory.
+     */
+    private static void publishEffectInventory() {
+        EffectInventory inventory;
+        synchronized (EFFECT_INVENTORY) {
+            inventory = new EffectInventory(EFFECT_INVENTORY);
+        }
+        TransactionReference transaction = null;
+        try {
+            transaction = capi.createTransaction(
+                    INVENTORY_TRANSACTION_TIMEOUT, spaceURI);
+            capi.take(effectInventoryContainer,
+                    asList(AnyCoordinator.newSelector(COUNT_MAX)),
+                    MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+            capi.write(effectInventoryContainer,
+                    MzsConstants.RequestTimeout.TRY_ONCE, transaction,
+                    new Entry(inventory));
+            capi.commitTransaction(transaction);
+        } catch (MzsCoreException e) {
+            LOGGER.error("Could not publish the effect inventory!");
+            if (transaction != null) {
+                try {
+                    capi.rollbackTransaction(transaction);
+                } catch (MzsCoreException e1) {
+                    LOGGER.debug("Transaction already timed out!");
+                }
+            }
+        }
+    }
 
     /**
      * Method to change the counter for the effect labels in the FireWorks GUI.
@@ -527,24 +752,19 @@ public class FireWorks extends Application {
      */
     public static void changeEffectLabels(final EffectColor effectColor,
                                           final int difference) {
-        Platform.runLater(() -> {
-            switch (effectColor) {
-                case Blue:
-                    blueEffectCounter += difference;
-                    blueEffectCounterProperty.set(blueEffectCounter);
-                    break;
-                case Red:
-                    redEffectCounter += difference;
-                    redEffectCounterProperty.set(redEffectCounter);
-                    break;
-                case Green:
-                    greenEffectCounter += difference;
-                    greenEffectCounterProperty.set(greenEffectCounter);
-                    break;
-                default:
-                    System.err.println("Effect with wrong color!");
-            }
-        });
+        switch (effectColor) {
+            case Blue:
+                GUI_UPDATES.addToCounter(Counter.BLUE_EFFECTS, difference);
+                break;
+            case Red:
+                GUI_UPDATES.addToCounter(Counter.RED_EFFECTS, difference);
+                break;
+            case Green:
+                GUI_UPDATES.addToCounter(Counter.GREEN_EFFECTS, difference);
+                break;
+            default:
+                System.err.println("Effect with wrong color!");
+        }
     }
 
     /**
@@ -559,20 +779,15 @@ public class FireWorks extends Application {
      */
     public static void changeCounterLabels(final String containerId,
                                            final int difference) {
-        Platform.runLater(() -> {
-            if (containerId.equals(casingContainer.getId())) {
-                casingsCounter = casingsCounter + difference;
-                casingsCounterProperty.set(casingsCounter);
-            }
-            if (containerId.equals(propellantContainer.getId())) {
-                propellantCounter = propellantCounter + difference;
-                propellantCounterProperty.set(propellantCounter);
-            }
-            if (containerId.equals(woodContainer.getId())) {
-                woodCounter = woodCounter + difference;
-                woodCounterProperty.set(woodCounter);
-            }
-        });
+        if (containerId.equals(casingContainer.getId())) {
+            GUI_UPDATES.addToCounter(Counter.CASINGS, difference);
+        }
+        if (containerId.equals(propellantContainer.getId())) {
+            GUI_UPDATES.addToCounter(Counter.CLOSED_PROPELLANTS, difference);
+        }
+        if (containerId.equals(woodContainer.getId())) {
+            GUI_UPDATES.addToCounter(Counter.WOOD, difference);
+        }
     }
     /**
      * Add a new purchase order to the Table in the GUI.
@@ -581,7 +796,7 @@ public class FireWorks extends Application {
      *          the new purchase order which is to be included in the table
      */
     public static void addPurchaseToTable(final Purchase purchase) {
-        Platform.runLater(() -> purchases.add(purchase));
+        GUI_UPDATES.addPurchase(purchase);
     }
 
     /**
@@ -591,19 +806,17 @@ public class FireWorks extends Application {
      *          Purchase with the updated values to replace the old purchase
      */
     public static void updatePurchaseTable(final Purchase updatedPurchase) {
-        Platform.runLater(() -> {
-            for (int index = 0; index < purchases.size(); index++) {
-                Purchase purchase = purchases.get(index);
-                int buyerId = purchase.getBuyerId().intValue();
-                int purchaseId = purchase.getPurchaseId().intValue();
-                int newBuyerId = updatedPurchase.getBuyerId().intValue();
-                int newPurchaseId = updatedPurchase.getPurchaseId().intValue();
-                if (buyerId == newBuyerId && purchaseId == newPurchaseId) {
-                    purchases.set(index, updatedPurchase);
-                    break;
-                }
-            }
-        });
+        GUI_UPDATES.updatePurchase(updatedPurchase);
+    }
+
+    /**
+     * Return the directory storing the container references used by the
+     * factory.
+     *
+     * @return The container directory of the factory
+     */
+    public static ContainerDirectory getContainerDirectory() {
+        return containerDirectory;
     }
 
     /**
@@ -624,7 +837,7 @@ public class FireWorks extends Application {
             LOGGER.debug(nextOrder.toString());
             supplier = new Supplier(supplierId,
                     mozartSpace.getConfig().getSpaceUri(), nextOrder,
-                    materialId);
+                    materialId, containerDirectory);
             supplier.start();
             supplierId++;
             materialId = materialId + nextOrder.getQuantity();
@@ -780,18 +993,18 @@ public class FireWorks extends Application {
 
         mozartSpace = DefaultMzsCore.newInstance();
         capi = new Capi(mozartSpace);
+        containerDirectory = new ContainerDirectory(capi);
 
         ContainerAspect materialContainerAspect = new MaterialAspects();
-        ContainerAspect newRocketContainerAspect = new NewRocketAspects();
         ContainerAspect testedRocketContainerAspect = new TestedRocketAspects();
         ContainerAspect packedRocketContainerAspect =
                 new FinishedRocketAspects();
         ContainerAspect trashedRocketContainerAspect =
                 new TrashedRocketAspects();
         ContainerAspect writePurchasesToContainer = new PurchaseAspects();
-        ContainerAspect orderedRocketsContainerAspect =
-                new OrderedRocketsAspects();
         spaceURI = mozartSpace.getConfig().getSpaceUri();
+        // suppliers started by the GUI use the embedded core directly
+        ClientCorePool.get().addLocalCore(mozartSpace);
         Set<ContainerIPoint> iPoints = new HashSet<>();
         iPoints.add(ContainerIPoint.POST_WRITE);
 
@@ -800,6 +1013,10 @@ public class FireWorks extends Application {
         p.add(SpaceIPoint.POST_COMMIT_TRANSACTION);
         try {
             capi.addSpaceAspect(aspect, spaceURI, p, null);
+            // ordered rockets are counted after the logistic workers
+            // committed their transactions
+            capi.addSpaceAspect(new OrderedRocketsAspects(spaceURI),
+                    spaceURI, p, null);
         } catch (MzsCoreException e) {
             e.printStackTrace();
         }
@@ -811,51 +1028,89 @@ public class FireWorks extends Application {
             casingContainer = capi.createContainer(
                     Casing.toString(),
                     spaceURI,
-                    Container.UNBOUNDED,
+                    capacity(Casing.toString()),
                     null);
             capi.addContainerAspect(materialContainerAspect, casingContainer,
                     iPoints, null);
             effectContainer = capi.createContainer(
                     Effect.toString(),
                     spaceURI,
-                    Container.UNBOUNDED,
+                    capacity(Effect.toString()),
                     asList(new LindaCoordinator(), new AnyCoordinator()),
                     null,
                     null);
             capi.addContainerAspect(materialContainerAspect, effectContainer,
                     iPoints, null);
+            // create the container where the workers can read the number of
+            // effect charges per color
+            effectInventoryContainer = capi.createContainer(
+                    "effectInventory",
+                    spaceURI,
+                    Container.UNBOUNDED,
+                    null);
+            publishEffectInventory();
+            // the query coordinator is used to find the opened propellant
+            // package that fits best for a rocket. It is obligatory, so
+            // every package is registered with it.
             propellantContainer = capi.createContainer(
                     Propellant.toString(),
                     spaceURI,
-                    Container.UNBOUNDED,
-                    asList(new LindaCoordinator(), new AnyCoordinator()),
+                    capacity(Propellant.toString()),
+                    asList(new LindaCoordinator(), new AnyCoordinator(),
+                            new QueryCoordinator()),
                     null,
                     null);
             capi.addContainerAspect(materialContainerAspect,
                     propellantContainer, iPoints, null);
+
             woodContainer = capi.createContainer(
                     Wood.toString(),
                     spaceURI,
-                    Container.UNBOUNDED,
+                    capacity(Wood.toString()),
                     null);
             capi.addContainerAspect(materialContainerAspect, woodContainer,
                     iPoints, null);
 
             // create the container where the newly created rockets are stored
+            // with a FiFo coordinator
             createdRockets = capi.createContainer(
                     "createdRockets",
                     spaceURI,
+                    capacity("createdRockets"),
+                    asList(new FifoCoordinator(), new AnyCoordinator()),
+                    null,
+                    null);
+            // create the container where every rocket is stored together
+            // with its materials. Testers and logistic workers only pass the
+            // headers of the rockets around. The query coordinator finds a
+            // rocket by its id and is obligatory, so every rocket is
+            // registered with it.
+            rocketParts = capi.createContainer(
+                    "rocketParts",
+                    spaceURI,
                     Container.UNBOUNDED,
+                    asList(new AnyCoordinator(), new QueryCoordinator()),
+                    null,
                     null);
-            capi.addContainerAspect(newRocketContainerAspect, createdRockets,
-                    iPoints, null);
+            // create the container storing the id of the next rocket.
+            // Workers take the id and write the next free id back inside
+            // the transaction that delivers their rockets.
+            ContainerReference rocketIds = capi.createContainer(
+                    "rocketIds",
+                    spaceURI,
+                    Container.UNBOUNDED,
+                    null);
+            capi.write(rocketIds, MzsConstants.RequestTimeout.TRY_ONCE, null,
+                    new Entry(FIRST_ROCKET_ID));
             // create the container where the tested rockets are stored with a
-            // FiFo coordinator
+            // FiFo coordinator. The label coordinator lets the logistic
+            // workers take the rockets of a certain quality class.
             testedRockets = capi.createContainer(
                     "testedRockets",
                     spaceURI,
-                    Container.UNBOUNDED,
-                    asList(new FifoCoordinator(), new AnyCoordinator()),
+                    capacity("testedRockets"),
+                    asList(new FifoCoordinator(), new AnyCoordinator(),
+                            new LabelCoordinator()),
                     null,
                     null);
             capi.addContainerAspect(testedRocketContainerAspect, testedRockets,
@@ -866,7 +1121,7 @@ public class FireWorks extends Application {
             packedRockets = capi.createContainer(
                     "finishedRockets",
                     spaceURI,
-                    Container.UNBOUNDED,
+                    capacity("finishedRockets"),
                     asList(new FifoCoordinator(), new AnyCoordinator()),
                     null,
                     null);
@@ -882,11 +1137,15 @@ public class FireWorks extends Application {
             capi.addContainerAspect(trashedRocketContainerAspect, wasteRockets,
                     iPoints, null);
 
-            // create the container where the purchases are stored
+            // create the container where the purchases are stored. Workers
+            // use the query coordinator to find a purchase they can build.
+            // It is obligatory, so every purchase is registered with it.
             purchaseContainer = capi.createContainer(
                     "purchase",
                     spaceURI,
                     Container.UNBOUNDED,
+                    asList(new AnyCoordinator(), new QueryCoordinator()),
+                    null,
                     null);
             capi.addContainerAspect(writePurchasesToContainer,
                     purchaseContainer, iPoints, null);
@@ -899,33 +1158,79 @@ public class FireWorks extends Application {
                     asList(new LindaCoordinator(), new AnyCoordinator()),
                     null,
                     null);
-            capi.addContainerAspect(orderedRocketsContainerAspect,
-                    orderedRocketsContainer, iPoints, null);
+
+            // publish how full the containers of the production line are
+            fillLevels = new ContainerFillLevels(capi);
+            fillLevels.add(Casing.toString(), casingContainer,
+                    capacity(Casing.toString()));
+            fillLevels.add(Effect.toString(), effectContainer,
+                    capacity(Effect.toString()));
+            fillLevels.add(Propellant.toString(), propellantContainer,
+                    capacity(Propellant.toString()));
+            fillLevels.add(Wood.toString(), woodContainer,
+                    capacity(Wood.toString()));
+            fillLevels.add("createdRockets", createdRockets,
+                    capacity("createdRockets"));
+            fillLevels.add("testedRockets", testedRockets,
+                    capacity("testedRockets"));
+            fillLevels.add("finishedRockets", packedRockets,
+                    capacity("finishedRockets"));
+            fillLevels.add("trashedRockets", wasteRockets,
+                    Container.UNBOUNDED);
+            fillLevels.add("purchase", purchaseContainer, Container.UNBOUNDED);
+            fillLevels.add("orderedRockets", orderedRocketsContainer,
+                    Container.UNBOUNDED);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
     }
 
+    /**
+     * Return the maximum number of entries of a container. The capacity can
+     * be limited with the system property {@code fireworks.capacity.<name>}.
+     * Producers that write into a full container have to wait until there
+     * is room again.
+     *
+     * @param name
+     *          The name of the container
+     * @return The capacity of the container or {@code Container.UNBOUNDED}
+     *         if the capacity is not limited
+     */
+    private static int capacity(final String name) {
+        Integer capacity = Integer.getInteger(CAPACITY_PROPERTY_PREFIX + name);
+        if (capacity == null || capacity <= 0) {
+            return Container.UNBOUNDED;
+        }
+        return capacity;
+    }
+
     /**
      * Close the containers and the space.
      */
     private static void closeSpace() {
+        if (fillLevels != null) {
+            fillLevels.unregister();
+        }
         try {
+            INVENTORY_PUBLISHER.shutdownNow();
             capi.destroyContainer(casingContainer, null);
             capi.destroyContainer(effectContainer, null);
             capi.destroyContainer(propellantContainer, null);
             capi.destroyContainer(woodContainer, null);
+            capi.destroyContainer(rocketParts, null);
             capi.destroyContainer(createdRockets, null);
             capi.destroyContainer(testedRockets, null);
             capi.destroyContainer(packedRockets, null);
             capi.destroyContainer(wasteRockets, null);
             capi.destroyContainer(purchaseContainer, null);
             capi.destroyContainer(orderedRocketsContainer, null);
+            capi.destroyContainer(effectInventoryContainer, null);
         } catch (MzsCoreException e) {
             LOGGER.error("Problems with destroying the containers "
                     + "in the space");
         }
+        ClientCorePool.get().removeLocalCore(mozartSpace);
         mozartSpace.shutdown(true);
         LOGGER.info("Closed space");
     }
@@ -952,6 +1257,14 @@ public class FireWorks extends Application {
         primaryStage.setOnCloseRequest(event -> closeSpace());
         primaryStage.setScene(new Scene(root));
         primaryStage.show();
+
+        // show the changes reported by the aspects once per frame
+        new AnimationTimer() {
+            @Override
+            public void handle(final long now) {
+                applyGuiUpdates();
+            }
+        }.start();
     }
 
     /**
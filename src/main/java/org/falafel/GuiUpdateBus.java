@@ -0,0 +1,231 @@
+package org.falafel;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class collects the changes of the user interface reported by the
+ * aspects of the space. The aspects only store their changes in lock free
+ * buffers. The JavaFX application thread takes all buffered changes once
+ * per frame and applies them to the user interface in a single batch, so a
+ * high rate of rockets does not flood the JavaFX event queue.
+ */
+public final class GuiUpdateBus {
+
+    /** The counters shown in the user interface. */
+    public enum Counter {
+        /** The number of casings. */
+        CASINGS,
+        /** The number of wood sticks. */
+        WOOD,
+        /** The number of closed propellant packages. */
+        CLOSED_PROPELLANTS,
+        /** The number of opened propellant packages. */
+        OPENED_PROPELLANTS,
+        /** The quantity (in grams) of the opened propellant packages. */
+        OPENED_PROPELLANT_QUANTITY,
+        /** The number of blue effects. */
+        BLUE_EFFECTS,
+        /** The number of green effects. */
+        GREEN_EFFECTS,
+        /** The number of red effects. */
+        RED_EFFECTS
+    }
+
+    /** The lists of rockets shown in the user interface. */
+    public enum RocketList {
+        /** The table containing all rockets. */
+        ROCKETS,
+        /** The table containing the trashed rockets. */
+        TRASHED,
+        /** The table containing the packed rockets. */
+        PACKED
+    }
+
+    /** The changes of the counters since the last frame. */
+    private final AtomicIntegerArray counterDeltas =
+            new AtomicIntegerArray(Counter.values().length);
+    /** The rockets created since the last frame. */
+    private final Queue<Rocket> newRockets = new ConcurrentLinkedQueue<>();
+    /** The rockets changed since the last frame in the order of their
+     *  changes. */
+    private final Queue<RocketChange> rocketChanges =
+            new ConcurrentLinkedQueue<>();
+    /** The purchases created since the last frame. */
+    private final Queue<Purchase> newPurchases =
+            new ConcurrentLinkedQueue<>();
+    /** The purchases changed since the last frame in the order of their
+     *  changes. */
+    private final Queue<Purchase> updatedPurchases =
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * Change the value of a counter.
+     *
+     * @param counter
+     *          The changed counter
+     * @param difference
+     *          The value that should be added to the counter
+     */
+    public void addToCounter(final Counter counter, final int difference) {
+        if (difference != 0) {
+            counterDeltas.addAndGet(counter.ordinal(), difference);
+        }
+    }
+
+    /**
+     * Take the change of a counter since the last call of this method.
+     *
+     * @param counter
+     *          The counter
+     * @return The value that should be added to the counter
+     */
+    public int takeCounterDelta(final Counter counter) {
+        return counterDeltas.getAndSet(counter.ordinal(), 0);
+    }
+
+    /**
+     * Report a new rocket.
+     *
+     * @param rocket
+     *          The rocket that should be added to the rocket table
+     */
+    public void addRocket(final Rocket rocket) {
+        newRockets.add(rocket);
+    }
+
+    /**
+     * Take the rockets reported since the last call of this method.
+     *
+     * @return The new rockets in the order in which they were reported
+     */
+    public ArrayList<Rocket> takeNewRockets() {
+        return drain(newRockets);
+    }
+
+    /**
+     * Report the change of a rocket.
+     *
+     * @param header
+     *          The header containing the new data of the rocket
+     * @param list
+     *          The list the rocket should be added to, or
+     *          {@code RocketList.ROCKETS} if the rocket should only be
+     *          updated
+     */
+    public void changeRocket(final RocketHeader header,
+                             final RocketList list) {
+        rocketChanges.add(new RocketChange(header, list));
+    }
+
+    /**
+     * Take the rocket changes reported since the last call of this method.
+     *
+     * @return The changes in the order in which they were reported
+     */
+    public ArrayList<RocketChange> takeRocketChanges() {
+        return drain(rocketChanges);
+    }
+
+    /**
+     * Report a new purchase.
+     *
+     * @param purchase
+     *          The purchase that should be added to the purchase table
+     */
+    public void addPurchase(final Purchase purchase) {
+        newPurchases.add(purchase);
+    }
+
+    /**
+     * Take the purchases reported since the last call of this method.
+     *
+     * @return The new purchases in the order in which they were reported
+     */
+    public ArrayList<Purchase> takeNewPurchases() {
+        return drain(newPurchases);
+    }
+
+    /**
+     * Report the change of a purchase.
+     *
+     * @param purchase
+     *          The purchase with the updated values
+     */
+    public void updatePurchase(final Purchase purchase) {
+        updatedPurchases.add(purchase);
+    }
+
+    /**
+     * Take the changed purchases reported since the last call of this
+     * method.
+     *
+     * @return The changed purchases in the order in which they were reported
+     */
+    public ArrayList<Purchase> takeUpdatedPurchases() {
+        return drain(updatedPurchases);
+    }
+
+    /**
+     * Remove all elements from a buffer.
+     *
+     * @param queue
+     *          The buffer
+     * @param <E>
+     *          The type of the buffered elements
+     * @return The removed elements in the order in which they were added
+     */
+    private static <E> ArrayList<E> drain(final Queue<E> queue) {
+        ArrayList<E> elements = new ArrayList<>();
+        E element = queue.poll();
+        while (element != null) {
+            elements.add(element);
+            element = queue.poll();
+        }
+        return elements;
+    }
+
+    /**
+     * This class stores a single change of a rocket.
+     */
+    public static final class RocketChange {
+
+        /** The header containing the new data of the rocket. */
+        private final RocketHeader header;
+        /** The list the rocket should be added to. */
+        private final RocketList list;
+
+        /**
+         * Create a new rocket change.
+         *
+         * @param header
+         *          The header containing the new data of the rocket
+         * @param list
+         *          The list the rocket should be added to
+         */
+        RocketChange(final RocketHeader header, final RocketList list) {
+            this.header = header;
+            this.list = list;
+        }
+
+        /**
+         * Return the header of the changed rocket.
+         *
+         * @return The header containing the new data of the rocket
+         */
+        public RocketHeader getHeader() {
+            return header;
+        }
+
+        /**
+         * Return the list the rocket should be added to.
+         *
+         * @return The list of the rocket
+         */
+        public RocketList getList() {
+            return list;
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package org.falafel;
 
-import org.mozartspaces.capi3.AnyCoordinator;
+import org.mozartspaces.capi3.ContainerFullException;
+import org.mozartspaces.capi3.ContainerNotFoundException;
 import org.mozartspaces.capi3.CountNotMetException;
 import org.mozartspaces.capi3.FifoCoordinator;
-import org.mozartspaces.capi3.LindaCoordinator;
+import org.mozartspaces.capi3.LabelCoordinator;
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
 import org.mozartspaces.core.DefaultMzsCore;
@@ -11,24 +12,66 @@ import org.mozartspaces.core.Entry;
 import org.mozartspaces.core.MzsConstants;
 import org.mozartspaces.core.MzsCore;
 import org.mozartspaces.core.MzsCoreException;
+import org.mozartspaces.core.MzsTimeoutException;
+import org.mozartspaces.core.RequestContext;
+import org.mozartspaces.core.TransactionReference;
 import org.slf4j.Logger;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.Arrays.asList;
+import static org.mozartspaces.core.MzsConstants.Container;
 import static org.slf4j.LoggerFactory.getLogger;
-import static org.mozartspaces.capi3.Selector.COUNT_ALL;
+import static org.mozartspaces.capi3.Selector.COUNT_MAX;
 
 /**
- * This class represents a logistic worker.
+ * This class represents a logistic worker. The logistic worker takes the
+ * tested rockets by their label and adds them to the open package of their
+ * quality class. The open packages are stored in a staging container in the
+ * space, so they survive a restart of the logistic worker with the same id.
+ *
+ * A single logistic process can host multiple logistic workers. The labels
+ * of the tested rockets are partitioned between them: class A rockets,
+ * class B rockets, bad rockets and ordered rockets each belong to one
+ * logistic worker. If there are more than {@code NUMBER_CLASS_PARTITIONS}
+ * logistic workers, the ordered rockets are split by their purchase between
+ * the additional workers. This way the logistic workers of a process never
+ * compete for the same rockets.
  */
-public final class Logistic {
+public final class Logistic implements Runnable {
 
-    /** Specifies how long a logistic worker waits until he tries to get
-     *  new rockets after he was unable to get them the last time. */
+    /** Specifies how long a logistic worker waits at most before he checks
+     *  again if there are enough rockets for a package. */
     private static final int WAIT_TIME_LOGISTIC_MS = 2000;
+    /** The base delay (in milliseconds) used if the logistic worker has a
+     *  problem with the space. */
+    private static final int BACKOFF_BASE_MS = 50;
     /** Constant for how many rockets are in one package. */
     private static final int PACKAGE_SIZE = 5;
+    /** Specifies how long a logistic worker may take to fill a package. */
+    private static final int TRANSACTION_TIMEOUT = 3000;
+    /** The prefix of the names of the staging containers. */
+    private static final String STAGING_CONTAINER_PREFIX = "packing-";
+    /** The labels of the rockets that are packed for shipping. */
+    private static final List<String> PACKED_LABELS = asList(
+            Rocket.QualityClass.A.toString(),
+            Rocket.QualityClass.B.toString());
+    /** The label of the rockets that are thrown away. */
+    private static final String TRASH_LABEL =
+            Rocket.QualityClass.Bad.toString();
+    /** The number of partitions that are not split by purchase (class A,
+     *  class B and bad rockets). */
+    private static final int NUMBER_CLASS_PARTITIONS = 3;
+    /** The number of logistic workers started by the process if no number is
+     *  specified on the command line. */
+    private static final int DEFAULT_NUMBER_PACKERS = 1;
+    /** The maximum number of command line arguments. */
+    private static final int MAX_ARGUMENTS = 3;
     /** Constant for how long the shutdown hook is waiting. */
     private static final int WAIT_TIME_TO_SHUTDOWN = 5000;
 
@@ -36,193 +79,514 @@ public final class Logistic {
      * Get the Logger for the current class.
      */
     private static final Logger LOGGER = getLogger(Logistic.class);
-    /** The mozart spaces core. */
+    /** The mozart spaces core shared by all logistic workers. */
     private static MzsCore core;
-    /** The mozart spaces core capi. */
-    private static Capi capi;
+    /** The threads executing the logistic workers of the process. */
+    private static ExecutorService packers;
     /** Flag to tell if the program is shutdown. */
-    private static boolean shutdown = false;
+    private static volatile boolean shutdown = false;
+    /** Flag to tell if the mozart spaces core was already shut down. */
+    private static boolean coreStopped = false;
+
+    /** The identifier of this logistic worker. */
+    private final int packerId;
+    /** The resource identifier of the space. */
+    private final URI spaceUri;
+    /** The labels of the tested rockets handled by this logistic worker. */
+    private final List<String> labels;
+    /** The API used to access the space. */
+    private final Capi capi;
+    /** The references to the containers used by the logistic worker. */
+    private final ContainerDirectory directory;
+    /** The policy used to wait before the next attempt. */
+    private final Backoff backoff;
+    /** The index of the label the logistic worker waits for next, if there
+     *  are no tested rockets for him. */
+    private int waitingLabel = 0;
 
     /**
-     * Create the quality tester singleton.
+     * Create a new logistic worker.
+     *
+     * @param packerId
+     *          The identifier of the logistic worker
+     * @param spaceUri
+     *          The resource identifier of the space
+     * @param labels
+     *          The labels of the tested rockets the logistic worker handles
+     * @param capi
+     *          The API used to access the space. It can be shared with other
+     *          logistic workers.
+     * @param directory
+     *          The references to the containers of the space. The directory
+     *          can be shared with other logistic workers.
      */
-    private Logistic() {
+    public Logistic(final int packerId, final URI spaceUri,
+                    final List<String> labels, final Capi capi,
+                    final ContainerDirectory directory) {
+        this.packerId = packerId;
+        this.spaceUri = spaceUri;
+        this.labels = labels;
+        this.capi = capi;
+        this.directory = directory;
+        backoff = new Backoff("Logistic", packerId, BACKOFF_BASE_MS,
+                WAIT_TIME_LOGISTIC_MS);
     }
 
     /**
-     * Start the quality tester process.
+     * Start the logistic process. The process hosts a number of logistic
+     * workers that all share the same core. Every logistic worker uses its
+     * own identifier starting with the given id.
      *
      * @param arguments A list containing the command line arguments.
      */
     public static void main(final String[] arguments) {
-        Logistic.addShutdownHook();
-        System.out.println("Leave the factory with Ctrl + C");
-        int packerId;
-        ArrayList<Rocket> rocketsClassA = new ArrayList<>();
-        ArrayList<Rocket> rocketsClassB = new ArrayList<>();
-        Rocket rocket;
+        int firstPackerId;
+        int numberPackers = DEFAULT_NUMBER_PACKERS;
         URI spaceUri;
-        Purchase purchase;
 
-        if (arguments.length != 2) {
-            System.err.println("Usage: QualityTester <Id> <Space URI>!");
+        if (arguments.length < 2 || arguments.length > MAX_ARGUMENTS) {
+            System.err.println("Usage: Logistic <Id> <Space URI> "
+                    + "[<Number Packers>]!");
             return;
         }
         try {
-            packerId = Integer.parseInt(arguments[0]);
+            firstPackerId = Integer.parseInt(arguments[0]);
             spaceUri = URI.create(arguments[1]);
+            if (arguments.length > 2) {
+                numberPackers = Integer.parseInt(arguments[2]);
+            }
         } catch (Exception e) {
             System.err.println("Please supply valid values!");
             return;
         }
-
-        LOGGER.info("Quality tester " + packerId + " ready to test!");
-
-        ContainerReference rocketContainer;
-        ContainerReference trashContainer;
-        ContainerReference shippingContainer;
-        ContainerReference orderedRocketsContainer;
-        ContainerReference purchaseContainer;
-
+        if (numberPackers < 1) {
+            System.err.println("The number of packers has to be at least 1!");
+            return;
+        }
 
         core = DefaultMzsCore.newInstanceWithoutSpace();
-        capi = new Capi(core);
+        Capi capi = new MeteredCapi(core,
+                new TransactionMetrics("Logistic", firstPackerId));
+        ContainerDirectory directory = new ContainerDirectory(capi);
         LOGGER.info("Space URI: " + core.getConfig().getSpaceUri());
 
         try {
-            rocketContainer = capi.lookupContainer("testedRockets", spaceUri,
-                    MzsConstants.RequestTimeout.TRY_ONCE,
-                    null);
-            trashContainer = capi.lookupContainer("trashedRockets", spaceUri,
-                    MzsConstants.RequestTimeout.TRY_ONCE,
-                    null);
-            shippingContainer = capi.lookupContainer("finishedRockets",
-                    spaceUri,
-                    MzsConstants.RequestTimeout.TRY_ONCE,
-                    null);
-            orderedRocketsContainer = capi.lookupContainer("orderedRockets",
-                    spaceUri,
-                    MzsConstants.RequestTimeout.TRY_ONCE,
-                    null);
-            purchaseContainer = capi.lookupContainer("purchase",
-                    spaceUri,
-                    MzsConstants.RequestTimeout.TRY_ONCE,
-                    null);
+            directory.lookup("testedRockets", spaceUri);
         } catch (MzsCoreException e) {
             LOGGER.error("Logistician can't find container!");
+            core.shutdown(true);
             return;
         }
 
+        List<List<String>> partitions = partitionLabels(numberPackers);
+        packers = Executors.newFixedThreadPool(numberPackers);
+        Logistic.addShutdownHook();
+        System.out.println("Leave the factory with Ctrl + C");
+        for (int packer = 0; packer < numberPackers; packer++) {
+            LOGGER.info("Logistician " + (firstPackerId + packer)
+                    + " handles " + partitions.get(packer));
+            packers.execute(new Logistic(firstPackerId + packer, spaceUri,
+                    partitions.get(packer), capi, directory));
+        }
+        // No new logistic workers are started, wait until every logistic
+        // worker stopped, either because the user left the factory or
+        // because a logistic worker requested a shutdown of the process
+        packers.shutdown();
+        try {
+            while (!packers.awaitTermination(WAIT_TIME_TO_SHUTDOWN,
+                    TimeUnit.MILLISECONDS)) {
+                LOGGER.debug("Logistic workers are still working");
+            }
+        } catch (InterruptedException e) {
+            LOGGER.error("I was interrupted while waiting for the logistic "
+                    + "workers!");
+        }
+        stopCore();
+    }
+
+    /**
+     * Split the labels of the tested rockets between the logistic workers.
+     * The partitions for class A, class B and bad rockets are assigned to
+     * the first logistic workers. The partitions of the ordered rockets are
+     * spread over the remaining logistic workers or over all logistic
+     * workers if there are no remaining workers.
+     *
+     * @param numberPackers
+     *          The number of logistic workers
+     * @return The labels handled by every logistic worker
+     */
+    private static List<List<String>> partitionLabels(
+            final int numberPackers) {
+        List<List<String>> partitions = new ArrayList<>();
+        for (int packer = 0; packer < numberPackers; packer++) {
+            partitions.add(new ArrayList<>());
+        }
 
-        while (!shutdown) {
-            try {
+        List<String> classLabels = new ArrayList<>(PACKED_LABELS);
+        classLabels.add(TRASH_LABEL);
+        for (int label = 0; label < classLabels.size(); label++) {
+            partitions.get(label % numberPackers).add(classLabels.get(label));
+        }
+
+        int firstOrderPacker = 0;
+        int numberOrderPackers = numberPackers;
+        if (numberPackers > NUMBER_CLASS_PARTITIONS) {
+            firstOrderPacker = NUMBER_CLASS_PARTITIONS;
+            numberOrderPackers = numberPackers - NUMBER_CLASS_PARTITIONS;
+        }
+        for (int partition = 0; partition < RocketHeader.ORDERED_PARTITIONS;
+             partition++) {
+            partitions.get(firstOrderPacker + partition % numberOrderPackers)
+                    .add(RocketHeader.orderedLabel(partition));
+        }
+        return partitions;
+    }
 
-                rocket = (Rocket) capi.take(rocketContainer,
-                        FifoCoordinator.newSelector(1),
-                        MzsConstants.RequestTimeout.TRY_ONCE,
-                        null).get(0);
+    /**
+     * Handle the tested rockets of the partitions of this logistic worker
+     * until the process is shutdown.
+     */
+    @Override
+    public void run() {
+        LOGGER.info("Logistician " + packerId + " ready to pack!");
 
-                rocket.setPackerId(packerId);
-                purchase = rocket.getPurchase();
-
-                switch (rocket.getTestResult()) {
-                    case A:
-                        if (purchase == null) {
-                            rocketsClassA.add(rocket);
-                        } else {
-                            capi.write(orderedRocketsContainer,
-                                    MzsConstants.RequestTimeout.TRY_ONCE,
-                                    null, new Entry(rocket));
-                        }
-                        break;
-                    case B:
-                        if (purchase != null) {
-                            rocket.setPurchase(null);
-                        }
-                        rocketsClassB.add(rocket);
-                        break;
-                    case Bad:
-                        if (purchase != null) {
-                            rocket.setPurchase(null);
-                        }
-                        capi.write(trashContainer,
-                                MzsConstants.RequestTimeout.TRY_ONCE,
-                                null, new Entry(rocket));
-                        break;
-                    default:
-                        LOGGER.error("Logistician has found wrong "
-                                        + "quality class!");
-                        System.exit(1);
+        while (!shutdown) {
+            try {
+                int handledRockets = 0;
+                for (String label : labels) {
+                    if (PACKED_LABELS.contains(label)) {
+                        handledRockets = handledRockets + packRockets(label);
+                    } else if (TRASH_LABEL.equals(label)) {
+                        handledRockets = handledRockets + trashRockets();
+                    } else {
+                        handledRockets = handledRockets
+                                + shipOrderedRockets(label);
+                    }
                 }
 
-                if (rocket.getPurchase() == null && purchase != null) {
-                    capi.write(purchaseContainer,
-                            MzsConstants.RequestTimeout.TRY_ONCE,
-                            null, new Entry(purchase));
+                if (handledRockets > 0) {
+                    backoff.reset();
+                } else {
+                    LOGGER.debug("Could not get enough rockets for a "
+                            + "package!");
+                    waitForRockets();
                 }
+            } catch (MzsTimeoutException e) {
+                LOGGER.debug("Can't finish in transaction time!");
+                pause();
+            } catch (ContainerFullException e) {
+                LOGGER.debug("No room for the finished packages!");
+                pause();
+            } catch (ContainerNotFoundException e) {
+                LOGGER.warn("Space was recreated, looking up containers "
+                        + "again!");
+                directory.invalidate(spaceUri);
+                pause();
+            } catch (MzsCoreException e) {
+                LOGGER.error("Logistician " + packerId + " has problem with "
+                        + "space!", e);
+                requestShutdown();
+            }
+        }
+        backoff.unregister();
+    }
 
-                if (rocketsClassA.size() == PACKAGE_SIZE) {
-                    capi.write(shippingContainer,
-                            MzsConstants.RequestTimeout.TRY_ONCE,
-                            null, new Entry(rocketsClassA,
-                                    FifoCoordinator.newCoordinationData()));
-                    rocketsClassA.clear();
+    /**
+     * Move the tested rockets of a purchase partition to the container for
+     * ordered rockets. All changes are made inside a single transaction.
+     *
+     * @param label
+     *          The label of the purchase partition
+     * @return The number of handled rockets
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private int shipOrderedRockets(final String label)
+            throws MzsCoreException {
+        TransactionReference transaction = capi.createTransaction(
+                TRANSACTION_TIMEOUT, spaceUri);
+        try {
+            ArrayList<RocketHeader> rockets = takeRockets(label, COUNT_MAX,
+                    transaction);
+            if (!rockets.isEmpty()) {
+                ArrayList<Entry> orderedRockets = new ArrayList<>();
+                for (RocketHeader rocket : rockets) {
+                    rocket.setPackerId(packerId);
+                    orderedRockets.add(new Entry(rocket));
                 }
-                if (rocketsClassB.size() == PACKAGE_SIZE) {
-                    capi.write(shippingContainer,
-                            MzsConstants.RequestTimeout.TRY_ONCE,
-                            null, new Entry(rocketsClassB,
-                                    FifoCoordinator.newCoordinationData()));
-                    rocketsClassB.clear();
+                capi.write(orderedRockets,
+                        directory.lookup("orderedRockets", spaceUri),
+                        MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+            }
+            // the factory counts the rockets of the purchases after the
+            // commit
+            RequestContext context = new RequestContext();
+            context.setProperty(OrderedRocketsAspects.SHIPPED_ROCKETS,
+                    rockets);
+            capi.commitTransaction(transaction, context);
+            return rockets.size();
+        } catch (MzsCoreException e) {
+            rollback(transaction);
+            throw e;
+        }
+    }
+
+    /**
+     * Move the bad rockets to the container for trashed rockets. All
+     * changes are made inside a single transaction.
+     *
+     * @return The number of handled rockets
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private int trashRockets() throws MzsCoreException {
+        TransactionReference transaction = capi.createTransaction(
+                TRANSACTION_TIMEOUT, spaceUri);
+        try {
+            ArrayList<RocketHeader> rockets = takeRockets(TRASH_LABEL,
+                    COUNT_MAX, transaction);
+            if (!rockets.isEmpty()) {
+                ArrayList<Entry> trashedRockets = new ArrayList<>();
+                for (RocketHeader rocket : rockets) {
+                    rocket.setPackerId(packerId);
+                    returnPurchase(rocket, transaction);
+                    trashedRockets.add(new Entry(rocket));
                 }
-            } catch (CountNotMetException e1) {
-                LOGGER.info("Could not get enough rockets for a package!");
+                capi.write(trashedRockets,
+                        directory.lookup("trashedRockets", spaceUri),
+                        MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+            }
+            capi.commitTransaction(transaction);
+            return rockets.size();
+        } catch (MzsCoreException e) {
+            rollback(transaction);
+            throw e;
+        }
+    }
+
+    /**
+     * Open the staging container of this logistic worker. The staging
+     * container stores the rockets of the open packages, so that they are
+     * not lost if the logistic worker stops. If the container does not exist
+     * yet, it is created in the space of the factory.
+     *
+     * @return The staging container of the logistic worker
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private ContainerReference openStagingContainer() throws MzsCoreException {
+        String name = STAGING_CONTAINER_PREFIX + packerId;
+        try {
+            return directory.lookup(name, spaceUri);
+        } catch (ContainerNotFoundException e) {
+            LOGGER.info("Create staging container " + name + "!");
+            capi.createContainer(name, spaceUri, Container.UNBOUNDED,
+                    asList(new LabelCoordinator(), new FifoCoordinator()),
+                    null, null);
+            return directory.lookup(name, spaceUri);
+        }
+    }
 
-                sendRocketsToContainer(rocketContainer, rocketsClassA);
-                rocketsClassA.clear();
-                sendRocketsToContainer(rocketContainer, rocketsClassB);
-                rocketsClassB.clear();
+    /**
+     * Add the tested rockets of a certain quality class to the open package
+     * in the staging container. As soon as the package contains
+     * {@code PACKAGE_SIZE} rockets it is moved to the container for finished
+     * rockets. All changes are made inside a single transaction.
+     *
+     * @param label
+     *          The label of the quality class
+     * @return The number of tested rockets added to the package
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private int packRockets(final String label) throws MzsCoreException {
+        ContainerReference stagingContainer = openStagingContainer();
+        TransactionReference transaction = capi.createTransaction(
+                TRANSACTION_TIMEOUT, spaceUri);
+        try {
+            ArrayList<RocketHeader> stagedRockets = capi.read(
+                    stagingContainer,
+                    LabelCoordinator.newSelector(label, COUNT_MAX),
+                    MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+            ArrayList<RocketHeader> newRockets = takeRockets(label,
+                    PACKAGE_SIZE - stagedRockets.size(), transaction);
+            for (RocketHeader rocket : newRockets) {
+                rocket.setPackerId(packerId);
+                returnPurchase(rocket, transaction);
+            }
 
-                try {
-                    Thread.sleep(WAIT_TIME_LOGISTIC_MS);
-                } catch (InterruptedException e) {
-                    LOGGER.error("I was interrupted while trying to sleep. "
-                            + "How rude!");
+            if (stagedRockets.size() + newRockets.size() < PACKAGE_SIZE) {
+                stageRockets(newRockets, label, stagingContainer,
+                        transaction);
+            } else {
+                ArrayList<RocketHeader> rockets = capi.take(
+                        stagingContainer,
+                        asList(LabelCoordinator.newSelector(label, COUNT_MAX),
+                                FifoCoordinator.newSelector(COUNT_MAX)),
+                        MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+                rockets.addAll(newRockets);
+                ContainerReference finishedRockets = directory.lookup(
+                        "finishedRockets", spaceUri);
+                int packed = 0;
+                while (rockets.size() - packed >= PACKAGE_SIZE) {
+                    capi.write(finishedRockets,
+                            MzsConstants.RequestTimeout.TRY_ONCE, transaction,
+                            new Entry(new ArrayList<>(rockets.subList(packed,
+                                    packed + PACKAGE_SIZE)),
+                                    FifoCoordinator.newCoordinationData()));
+                    packed = packed + PACKAGE_SIZE;
                 }
-            } catch (MzsCoreException e) {
-                LOGGER.error("Logistician has problem with space!");
-                System.exit(1);
+                // the rockets left over after the last full package form
+                // the incomplete package, which stays in the staging
+                // container packing-<id> of this logistic worker
+                stageRockets(rockets.subList(packed, rockets.size()), label,
+                        stagingContainer, transaction);
             }
+            capi.commitTransaction(transaction);
+            return newRockets.size();
+        } catch (MzsCoreException e) {
+            rollback(transaction);
+            throw e;
         }
-        sendRocketsToContainer(rocketContainer, rocketsClassA);
-        rocketsClassA.clear();
-        sendRocketsToContainer(rocketContainer, rocketsClassB);
-        rocketsClassB.clear();
     }
 
     /**
-     * Sends a rocket list to the container.
+     * Add rockets to the open package in the staging container.
      *
-     * @param container
-     *          ContainerReference to which the rockets are written.
      * @param rockets
-     *          ArrayList of rockets to write in a container
+     *          The rockets added to the open package
+     * @param label
+     *          The label of the quality class of the package
+     * @param stagingContainer
+     *          The staging container of the logistic worker
+     * @param transaction
+     *          The transaction used to write the rockets
+     * @throws MzsCoreException
+     *          If there was a problem with the space
      */
-    private static void sendRocketsToContainer(
-                                final ContainerReference container,
-                                final ArrayList<Rocket> rockets) {
-        for (Rocket returnRocket : rockets) {
-            returnRocket.setPackerId(0);
-            try {
-                capi.write(container,
-                        MzsConstants.RequestTimeout.TRY_ONCE,
-                        null, new Entry(returnRocket,
-                                FifoCoordinator.newCoordinationData()));
-            } catch (MzsCoreException e) {
-                LOGGER.error("Logistician can't return rockets to "
-                        + "tested container!");
-                System.exit(1);
-            }
+    private void stageRockets(final List<RocketHeader> rockets,
+                              final String label,
+                              final ContainerReference stagingContainer,
+                              final TransactionReference transaction)
+            throws MzsCoreException {
+        if (rockets.isEmpty()) {
+            return;
+        }
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (RocketHeader rocket : rockets) {
+            entries.add(new Entry(rocket,
+                    LabelCoordinator.newCoordinationData(label),
+                    FifoCoordinator.newCoordinationData()));
+        }
+        capi.write(entries, stagingContainer,
+                MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+    }
+
+    /**
+     * Roll back a transaction. If the transaction already timed out, the
+     * space rolled it back by itself.
+     *
+     * @param transaction
+     *          The transaction that should be rolled back
+     */
+    private void rollback(final TransactionReference transaction) {
+        try {
+            capi.rollbackTransaction(transaction);
+        } catch (MzsCoreException e) {
+            LOGGER.debug("Transaction already timed out!");
+        }
+    }
+
+    /**
+     * Take up to a certain number of tested rockets with a certain label in
+     * the order in which they were tested. If fewer rockets are available,
+     * all of them are taken.
+     *
+     * @param label
+     *          The label of the rockets
+     * @param count
+     *          The maximum number of rockets that should be taken
+     * @param transaction
+     *          The transaction used to take the rockets
+     * @return The taken rockets. The list is empty if there is no rocket
+     *         with the given label.
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private ArrayList<RocketHeader> takeRockets(
+            final String label, final int count,
+            final TransactionReference transaction) throws MzsCoreException {
+        ContainerReference container = directory.lookup("testedRockets",
+                spaceUri);
+        try {
+            return capi.take(container,
+                    asList(LabelCoordinator.newSelector(label, COUNT_MAX),
+                            FifoCoordinator.newSelector(count)),
+                    MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+        } catch (CountNotMetException e) {
+            return capi.take(container,
+                    asList(LabelCoordinator.newSelector(label, COUNT_MAX),
+                            FifoCoordinator.newSelector(COUNT_MAX)),
+                    MzsConstants.RequestTimeout.TRY_ONCE, transaction);
+        }
+    }
+
+    /**
+     * Return the purchase of a rocket that can not be shipped to the buyer.
+     * The purchase is taken from the header of the rocket and written back
+     * to the purchase container, so that another rocket can be built for it.
+     *
+     * @param rocket
+     *          The header of a class B or bad rocket
+     * @param transaction
+     *          The transaction used to return the purchase
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void returnPurchase(final RocketHeader rocket,
+                                final TransactionReference transaction)
+            throws MzsCoreException {
+        if (!rocket.hasPurchase()) {
+            return;
+        }
+        Purchase purchase = rocket.getPurchase();
+        rocket.removePurchase();
+        capi.write(directory.lookup("purchase", spaceUri),
+                MzsConstants.RequestTimeout.TRY_ONCE, transaction,
+                new Entry(purchase));
+    }
+
+    /**
+     * Wait inside the space until a tested rocket for this logistic worker
+     * arrives. The logistic worker waits for one of his labels at a time and
+     * switches to the next label after every attempt, so all his labels
+     * share the maximum waiting time.
+     *
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void waitForRockets() throws MzsCoreException {
+        String label = labels.get(waitingLabel);
+        waitingLabel = (waitingLabel + 1) % labels.size();
+        try {
+            capi.read(directory.lookup("testedRockets", spaceUri),
+                    LabelCoordinator.newSelector(label, 1),
+                    WAIT_TIME_LOGISTIC_MS / labels.size(), null);
+        } catch (MzsTimeoutException e) {
+            LOGGER.debug("No tested rockets with label " + label
+                    + " arrived!");
+        }
+    }
+
+    /**
+     * Wait before the next attempt to pack rockets.
+     */
+    private void pause() {
+        try {
+            backoff.pause();
+        } catch (InterruptedException e) {
+            LOGGER.error("I was interrupted while trying to sleep. "
+                    + "How rude!");
         }
     }
 
@@ -235,15 +599,40 @@ public final class Logistic {
             public void run() {
                 System.out.println("I'm packing my stuff together.");
                 shutdown = true;
+                packers.shutdown();
                 try {
-                    Thread.sleep(WAIT_TIME_TO_SHUTDOWN);
+                    if (!packers.awaitTermination(WAIT_TIME_TO_SHUTDOWN,
+                            TimeUnit.MILLISECONDS)) {
+                        packers.shutdownNow();
+                    }
                 } catch (InterruptedException e) {
                     LOGGER.error("I was interrupted while trying to sleep. "
                             + "How rude!");
                 }
-                core.shutdown(true);
+                stopCore();
                 System.out.println("I'm going home.");
             }
         });
     }
+
+    /**
+     * Tell all logistic workers of the process to stop after their current
+     * round. A logistic worker calls this method instead of terminating the
+     * process if he can not continue his work. The main thread shuts down
+     * the core as soon as all logistic workers stopped.
+     */
+    private static void requestShutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * Shut down the mozart spaces core of the process, unless this was
+     * already done.
+     */
+    private static synchronized void stopCore() {
+        if (!coreStopped) {
+            coreStopped = true;
+            core.shutdown(true);
+        }
+    }
 }
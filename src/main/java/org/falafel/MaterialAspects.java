@@ -4,6 +4,7 @@ import org.mozartspaces.capi3.Capi3AspectPort;
 import org.mozartspaces.capi3.SubTransaction;
 import org.mozartspaces.capi3.Transaction;
 import org.mozartspaces.core.Entry;
+import org.mozartspaces.core.RequestContext;
 import org.mozartspaces.core.aspects.AbstractContainerAspect;
 import org.mozartspaces.core.aspects.AspectResult;
 import org.mozartspaces.core.requests.WriteEntriesRequest;
@@ -38,6 +39,14 @@ public class MaterialAspects extends AbstractContainerAspect {
 
         List<Entry> entries = request.getEntries();
 
+        // the labels for packages written back by the propellant dispenser
+        // are updated after the transaction of the withdrawal is committed
+        RequestContext context = request.getContext();
+        if (context != null && context.containsProperty(
+                PropellantDispenser.DISPENSED)) {
+            return AspectResult.OK;
+        }
+
         if (entries.get(0).getValue() instanceof Propellant) {
             for (Entry entry : entries) {
                 Propellant propellantEntry = (Propellant) entry.getValue();
@@ -50,6 +59,8 @@ public class MaterialAspects extends AbstractContainerAspect {
                 }
             }
         } else if (entries.get(0).getValue() instanceof Effect) {
+            // the effect inventory is updated after the transaction of the
+            // supplier is committed
             for (Entry entry : entries) {
                 Effect effectEntry = (Effect) entry.getValue();
                 FireWorks.changeEffectLabels(effectEntry.getColor(), 1);
@@ -0,0 +1,207 @@
+package org.falafel;
+
+import org.mozartspaces.capi3.CountNotMetException;
+import org.mozartspaces.capi3.IsolationLevel;
+import org.mozartspaces.capi3.Selector;
+import org.mozartspaces.core.Capi;
+import org.mozartspaces.core.ContainerReference;
+import org.mozartspaces.core.MzsCore;
+import org.mozartspaces.core.MzsCoreException;
+import org.mozartspaces.core.MzsTimeoutException;
+import org.mozartspaces.core.RequestContext;
+import org.mozartspaces.core.TransactionReference;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * This class extends the core API with metrics. It records the outcome and
+ * latency of all transaction requests and take requests. Takes are recorded
+ * under the name of the container, which is known as soon as the container
+ * was looked up with this API.
+ */
+public class MeteredCapi extends Capi {
+
+    /** The name used for requests that do not access a container. */
+    private static final String TRANSACTION = "transaction";
+
+    /** The metrics of the process. */
+    private final TransactionMetrics metrics;
+    /** The names of all containers looked up with this API. */
+    private final Map<String, String> containerNames =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Create a new API that records its requests.
+     *
+     * @param core
+     *          The core used to access the space
+     * @param metrics
+     *          The metrics used to record the requests
+     */
+    public MeteredCapi(final MzsCore core, final TransactionMetrics metrics) {
+        super(core);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Return the metrics of this API.
+     *
+     * @return The metrics used to record the requests
+     */
+    public final TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Return the outcome of a failed request.
+     *
+     * @param exception
+     *          The exception thrown by the request
+     * @return The outcome of the request
+     */
+    private static TransactionMetrics.Outcome outcomeOf(
+            final MzsCoreException exception) {
+        if (exception instanceof MzsTimeoutException) {
+            return TransactionMetrics.Outcome.TIMEOUT;
+        }
+        if (exception instanceof CountNotMetException) {
+            return TransactionMetrics.Outcome.COUNT_NOT_MET;
+        }
+        return TransactionMetrics.Outcome.ERROR;
+    }
+
+    /**
+     * Return the name of a container.
+     *
+     * @param container
+     *          The reference of the container
+     * @return The name of the container or its identifier if the container
+     *         was not looked up with this API
+     */
+    private String nameOf(final ContainerReference container) {
+        String name = containerNames.get(container.getId());
+        if (name == null) {
+            return container.getId();
+        }
+        return name;
+    }
+
+    @Override
+    public final ContainerReference lookupContainer(
+            final String name, final URI space, final long timeout,
+            final TransactionReference transaction) throws MzsCoreException {
+        ContainerReference container = super.lookupContainer(name, space,
+                timeout, transaction);
+        containerNames.put(container.getId(), name);
+        return container;
+    }
+
+    @Override
+    public final TransactionReference createTransaction(
+            final long timeout, final URI space) throws MzsCoreException {
+        return createTransaction(timeout, space, null);
+    }
+
+    @Override
+    public final TransactionReference createTransaction(
+            final long timeout, final URI space, final RequestContext context)
+            throws MzsCoreException {
+        long start = System.nanoTime();
+        try {
+            TransactionReference transaction = super.createTransaction(
+                    timeout, space, context);
+            metrics.record("create", TRANSACTION,
+                    TransactionMetrics.Outcome.OK, start);
+            return transaction;
+        } catch (MzsCoreException e) {
+            metrics.record("create", TRANSACTION, outcomeOf(e), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public final void commitTransaction(
+            final TransactionReference transaction) throws MzsCoreException {
+        commitTransaction(transaction, null);
+    }
+
+    @Override
+    public final void commitTransaction(
+            final TransactionReference transaction,
+            final RequestContext context) throws MzsCoreException {
+        long start = System.nanoTime();
+        try {
+            super.commitTransaction(transaction, context);
+            metrics.record("commit", TRANSACTION,
+                    TransactionMetrics.Outcome.OK, start);
+        } catch (MzsCoreException e) {
+            metrics.record("commit", TRANSACTION, outcomeOf(e), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public final void rollbackTransaction(
+            final TransactionReference transaction) throws MzsCoreException {
+        rollbackTransaction(transaction, null);
+    }
+
+    @Override
+    public final void rollbackTransaction(
+            final TransactionReference transaction,
+            final RequestContext context) throws MzsCoreException {
+        long start = System.nanoTime();
+        try {
+            super.rollbackTransaction(transaction, context);
+            metrics.record("rollback", TRANSACTION,
+                    TransactionMetrics.Outcome.OK, start);
+        } catch (MzsCoreException e) {
+            metrics.record("rollback", TRANSACTION, outcomeOf(e), start);
+            throw e;
+        }
+    }
+
+    @Override
+    public final <T extends Serializable> ArrayList<T> take(
+            final ContainerReference container, final Selector selector,
+            final long timeout, final TransactionReference transaction)
+            throws MzsCoreException {
+        return take(container, singletonList(selector), timeout, transaction,
+                null, null);
+    }
+
+    @Override
+    public final <T extends Serializable> ArrayList<T> take(
+            final ContainerReference container,
+            final List<? extends Selector> selectors, final long timeout,
+            final TransactionReference transaction) throws MzsCoreException {
+        return take(container, selectors, timeout, transaction, null, null);
+    }
+
+    @Override
+    public final <T extends Serializable> ArrayList<T> take(
+            final ContainerReference container,
+            final List<? extends Selector> selectors, final long timeout,
+            final TransactionReference transaction,
+            final IsolationLevel isolationLevel, final RequestContext context)
+            throws MzsCoreException {
+        long start = System.nanoTime();
+        try {
+            ArrayList<T> entries = super.take(container, selectors, timeout,
+                    transaction, isolationLevel, context);
+            metrics.record("take", nameOf(container),
+                    TransactionMetrics.Outcome.OK, start);
+            return entries;
+        } catch (MzsCoreException e) {
+            metrics.record("take", nameOf(container), outcomeOf(e), start);
+            throw e;
+        }
+    }
+}
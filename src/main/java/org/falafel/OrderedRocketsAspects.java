@@ -1,81 +1,111 @@
 package org.falafel;
 
-import org.mozartspaces.capi3.Capi3AspectPort;
-import org.mozartspaces.capi3.SubTransaction;
 import org.mozartspaces.capi3.Transaction;
-import org.mozartspaces.core.Entry;
-import org.mozartspaces.core.aspects.AbstractContainerAspect;
+import org.mozartspaces.core.RequestContext;
+import org.mozartspaces.core.aspects.AbstractSpaceAspect;
 import org.mozartspaces.core.aspects.AspectResult;
-import org.mozartspaces.core.requests.WriteEntriesRequest;
+import org.mozartspaces.core.requests.CommitTransactionRequest;
 
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 
 /**
- * This class implements various aspects involving the orderedRockets container.
+ * This class implements the aspects involving the orderedRockets container.
+ * Logistic workers move ordered rockets to the container inside a
+ * transaction and pass the moved rockets in the context of the commit. The
+ * rockets are counted only after the commit, so a purchase is never sent to
+ * its buyer before all its rockets can be taken from the container.
  */
-public class OrderedRocketsAspects extends AbstractContainerAspect {
+public class OrderedRocketsAspects extends AbstractSpaceAspect {
+
+    /** The name of the commit context property listing the ordered rockets
+     *  a logistic worker moved to the container. */
+    public static final String SHIPPED_ROCKETS = "shippedRockets";
 
     /** The rocket counters for the different purchases. */
     private static HashMap<Integer, HashMap<Integer, Purchase>> purchaseCounters
             = new HashMap<>();
+
+    /** The resource identifier of the space of the factory. */
+    private final URI spaceUri;
+
+    /**
+     * Create the aspects for the ordered rockets.
+     *
+     * @param spaceUri
+     *          The resource identifier of the space of the factory
+     */
+    public OrderedRocketsAspects(final URI spaceUri) {
+        this.spaceUri = spaceUri;
+    }
+
     /**
-     * This aspect will be called after an entry is written to an container.
+     * This aspect will be called after a transaction was committed. It counts
+     * the ordered rockets moved inside the transaction and starts to send
+     * every purchase whose rockets are all finished to its buyer.
      *
      * @param request
      *          The original request sent to the core
      * @param tx
      *          The transaction, can be explicit or implicit
-     * @param stx
-     *          The sub-transaction for this operation
-     * @param capi3
-     *          The container-specific CAPI-3 interface
-     * @param executionCount
-     *          The number of processing of this request
      * @return The aspect result
      */
-    public final AspectResult postWrite(final WriteEntriesRequest request,
-                                        final Transaction tx,
-                                        final SubTransaction stx,
-                                        final Capi3AspectPort capi3,
-                                        final int executionCount) {
-
-        List<Entry> entries = request.getEntries();
-        Rocket rocket = (Rocket) entries.get(0).getValue();
-        Purchase purchase = rocket.getPurchase();
-        Integer buyerId = purchase.getBuyerId().intValue();
-        Integer purchaseId = purchase.getPurchaseId().intValue();
-        // if new purchase order the
-        purchase.addFinishedRockets(1);
+    public final AspectResult postCommitTransaction(
+            final CommitTransactionRequest request, final Transaction tx) {
 
-        if (purchaseCounters.containsKey(buyerId)) {
-            if (purchaseCounters.get(buyerId).containsKey(purchaseId)) {
-                purchaseCounters.get(buyerId).get(
-                                            purchaseId).addFinishedRockets(1);
-            } else {
-                purchaseCounters.get(buyerId).put(purchaseId, purchase);
-            }
-        } else {
-            HashMap<Integer, Purchase> newBuyersPurchase = new HashMap<>();
-            newBuyersPurchase.put(purchaseId, purchase);
-            purchaseCounters.put(buyerId, newBuyersPurchase);
+        RequestContext context = request.getContext();
+        if (context == null || !context.containsProperty(SHIPPED_ROCKETS)) {
+            return AspectResult.OK;
         }
+        @SuppressWarnings("unchecked")
+        List<RocketHeader> rockets =
+                (List<RocketHeader>) context.getProperty(SHIPPED_ROCKETS);
 
-        purchase =  purchaseCounters.get(buyerId).get(purchaseId);
-        if (purchase.getNumberFinishedRocketsProperty().intValue()
-                == purchase.getNumberRocketsProperty().intValue()) {
-            purchase.setStatusToFinished();
-            URI spaceUri = request.getContainer().getSpace();
-            WriteFinishedPurchasesToBuyer sender = new
-                    WriteFinishedPurchasesToBuyer(spaceUri, purchase);
-            sender.start();
+        for (RocketHeader rocket : rockets) {
+            Purchase purchase = addFinishedRocket(rocket);
+            FireWorks.updateOfARocketInRocketsTable(rocket);
+            FireWorks.updatePurchaseTable(purchase);
         }
+        return AspectResult.OK;
+    }
 
-        FireWorks.updateOfARocketInRocketsTable(rocket);
-        FireWorks.updatePurchaseTable(purchaseCounters.get(buyerId).get(
-                purchaseId));
+    /**
+     * Count a finished rocket for its purchase. If all rockets of the
+     * purchase are finished, the purchase is sent to its buyer.
+     *
+     * @param rocket
+     *          The header of the finished rocket
+     * @return The purchase of the rocket
+     */
+    private Purchase addFinishedRocket(final RocketHeader rocket) {
+        Integer buyerId = rocket.getBuyerId();
+        Integer purchaseId = rocket.getPurchaseId();
+        Purchase purchase;
 
-        return AspectResult.OK;
+        // Logistic workers of different partitions can ship ordered rockets
+        // at the same time
+        synchronized (OrderedRocketsAspects.class) {
+            if (!purchaseCounters.containsKey(buyerId)) {
+                purchaseCounters.put(buyerId, new HashMap<>());
+            }
+            purchase = purchaseCounters.get(buyerId).get(purchaseId);
+            if (purchase == null) {
+                // The first rocket of a new purchase, the header carries the
+                // purchase
+                purchase = rocket.getPurchase();
+                purchaseCounters.get(buyerId).put(purchaseId, purchase);
+            }
+            purchase.addFinishedRockets(1);
+
+            if (purchase.getNumberFinishedRocketsProperty().intValue()
+                    == purchase.getNumberRocketsProperty().intValue()) {
+                purchase.setStatusToFinished();
+                WriteFinishedPurchasesToBuyer sender = new
+                        WriteFinishedPurchasesToBuyer(spaceUri, purchase);
+                sender.start();
+            }
+        }
+        return purchase;
     }
 }
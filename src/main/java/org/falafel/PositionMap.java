@@ -0,0 +1,158 @@
+package org.falafel;
+
+import java.util.Arrays;
+
+/**
+ * This class maps primitive {@code long} keys to positions in a table.
+ * The keys are stored with open addressing in a plain array, so neither a
+ * lookup nor an insertion boxes its key. Positions are never negative, a
+ * lookup of a missing key returns {@code -1}.
+ */
+public final class PositionMap {
+
+    /** The number of slots of a new map. Must be a power of two. */
+    private static final int INITIAL_CAPACITY = 64;
+    /** The marker of an empty slot. */
+    private static final int EMPTY = -1;
+    /** The constant used to spread the bits of a key over the hash. */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    /** The number of bits of an integer. */
+    private static final int INTEGER_BITS = 32;
+
+    /** The keys stored in the slots of the map. */
+    private long[] keys;
+    /** The positions stored in the slots of the map or {@code EMPTY}. */
+    private int[] positions;
+    /** The number of keys stored in the map. */
+    private int size;
+
+    /**
+     * Create a new empty map.
+     */
+    public PositionMap() {
+        keys = new long[INITIAL_CAPACITY];
+        positions = new int[INITIAL_CAPACITY];
+        Arrays.fill(positions, EMPTY);
+    }
+
+    /**
+     * Return the position stored for a key.
+     *
+     * @param key
+     *          The key of the position
+     * @return The position of the key or {@code -1} if the key is not part
+     *         of the map
+     */
+    public int get(final long key) {
+        int slot = slot(key, keys.length);
+        while (positions[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return positions[slot];
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Store the position of a key. An existing position of the key is
+     * replaced.
+     *
+     * @param key
+     *          The key of the position
+     * @param position
+     *          The position of the key, must not be negative
+     */
+    public void put(final long key, final int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("A position must not be "
+                    + "negative!");
+        }
+        // keep at least half of the slots empty, so probes stay short
+        if (2 * (size + 1) > keys.length) {
+            resize(2 * keys.length);
+        }
+        if (insert(keys, positions, key, position)) {
+            size++;
+        }
+    }
+
+    /**
+     * Remove all keys from the map.
+     */
+    public void clear() {
+        Arrays.fill(positions, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Return the number of keys stored in the map.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Move all keys into larger arrays.
+     *
+     * @param capacity
+     *          The new number of slots, a power of two
+     */
+    private void resize(final int capacity) {
+        long[] newKeys = new long[capacity];
+        int[] newPositions = new int[capacity];
+        Arrays.fill(newPositions, EMPTY);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (positions[slot] != EMPTY) {
+                insert(newKeys, newPositions, keys[slot], positions[slot]);
+            }
+        }
+        keys = newKeys;
+        positions = newPositions;
+    }
+
+    /**
+     * Store a key in the given slots.
+     *
+     * @param slotKeys
+     *          The keys of the slots
+     * @param slotPositions
+     *          The positions of the slots
+     * @param key
+     *          The key to store
+     * @param position
+     *          The position of the key
+     * @return {@code true} if the key was not stored before
+     */
+    private static boolean insert(final long[] slotKeys,
+                                  final int[] slotPositions, final long key,
+                                  final int position) {
+        int slot = slot(key, slotKeys.length);
+        while (slotPositions[slot] != EMPTY) {
+            if (slotKeys[slot] == key) {
+                slotPositions[slot] = position;
+                return false;
+            }
+            slot = (slot + 1) & (slotKeys.length - 1);
+        }
+        slotKeys[slot] = key;
+        slotPositions[slot] = position;
+        return true;
+    }
+
+    /**
+     * Return the first slot probed for a key.
+     *
+     * @param key
+     *          The key
+     * @param capacity
+     *          The number of slots, a power of two
+     * @return The index of the slot
+     */
+    private static int slot(final long key, final int capacity) {
+        long hash = key * HASH_MULTIPLIER;
+        return (int) (hash ^ (hash >>> INTEGER_BITS)) & (capacity - 1);
+    }
+}
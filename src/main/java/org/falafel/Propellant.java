@@ -1,7 +1,12 @@
 package org.falafel;
 
 import org.mozartspaces.capi3.Index;
+import org.mozartspaces.capi3.Matchmakers;
+import org.mozartspaces.capi3.Property;
+import org.mozartspaces.capi3.Query;
+import org.mozartspaces.capi3.QueryCoordinator;
 import org.mozartspaces.capi3.Queryable;
+import org.mozartspaces.capi3.Selector;
 
 /**
  * A class representing a propellant package.
@@ -22,9 +27,19 @@ public class Propellant extends Material {
      */
     public static final String OPENED = "opened";
 
+    /** The property used to query the identifier of a package. */
+    private static final Property ID_PROPERTY = Property.forName("*", "id");
+    /** The property used to query the status of a package. */
+    private static final Property STATUS_PROPERTY =
+            Property.forName("*", "status");
+    /** The property used to query the remaining quantity of a package. */
+    private static final Property QUANTITY_PROPERTY =
+            Property.forName("*", "quantity");
+
     /**
      * Save how much of the material is still left.
      */
+    @Index
     private int quantity;
     /**
      * Save if the package is opened.
@@ -75,11 +90,57 @@ public class Propellant extends Material {
     /**
      * Return the status of the propellant package.
      *
-     * @return the current status of the propellant package.
+     * @return the current status ({@code CLOSED} or {@code OPENED}) of the
+     *         propellant package.
+     */
+    public final String getStatus() {
+        return status;
+    }
+
+    /**
+     * Return a selector for the opened package that fits best for the given
+     * quantity. The best fitting package is the opened package with the
+     * smallest remaining quantity that is still at least as large as the
+     * given quantity.
+     *
+     * @param neededQuantity
+     *          The quantity of propellant (in grams) that is needed
+     * @return A selector for the query coordinator of the propellant container
+     */
+    public static Selector newBestFitSelector(final int neededQuantity) {
+        return QueryCoordinator.newSelector(new Query()
+                .filter(Matchmakers.and(STATUS_PROPERTY.equalTo(OPENED),
+                        QUANTITY_PROPERTY.greaterThanOrEqualTo(
+                                neededQuantity)))
+                .sortup(QUANTITY_PROPERTY)
+                .cnt(1));
+    }
+
+    /**
+     * Return a selector for the package with the given identifier.
+     *
+     * @param packageId
+     *          The identifier of the package
+     * @return A selector for the query coordinator of the propellant container
      */
-    /*public final void setStatus(Integer newStatus) {
-        status = newStatus;
-    }*/
+    public static Selector newIdSelector(final int packageId) {
+        return QueryCoordinator.newSelector(new Query()
+                .filter(ID_PROPERTY.equalTo(packageId))
+                .cnt(1));
+    }
+
+    /**
+     * Return a selector for the opened package with the largest remaining
+     * quantity.
+     *
+     * @return A selector for the query coordinator of the propellant container
+     */
+    public static Selector newLargestOpenedSelector() {
+        return QueryCoordinator.newSelector(new Query()
+                .filter(STATUS_PROPERTY.equalTo(OPENED))
+                .sortdown(QUANTITY_PROPERTY)
+                .cnt(1));
+    }
 
     /**
      * Return the string representation of the propellant package.
@@ -0,0 +1,167 @@
+package org.falafel;
+
+import org.mozartspaces.capi3.CountNotMetException;
+import org.mozartspaces.capi3.LindaCoordinator;
+import org.mozartspaces.core.Capi;
+import org.mozartspaces.core.ContainerReference;
+import org.mozartspaces.core.Entry;
+import org.mozartspaces.core.MzsConstants.RequestTimeout;
+import org.mozartspaces.core.MzsCoreException;
+import org.mozartspaces.core.RequestContext;
+import org.mozartspaces.core.TransactionReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static java.util.Arrays.asList;
+import static org.mozartspaces.capi3.LindaCoordinator.newCoordinationData;
+
+/**
+ * This class implements the propellant dispenser. The dispenser withdraws
+ * propellant inside the transaction of a worker. It takes the needed
+ * propellant packages, removes the requested quantities and writes the
+ * packages that still contain propellant back to the propellant container.
+ * This way a package never leaves the space for longer than the transaction
+ * of the withdrawal and can be used by other workers as soon as the
+ * transaction is committed.
+ *
+ * The taken packages are only changed after the whole withdrawal was
+ * allocated. If there is not enough propellant, the packages are left
+ * untouched and the worker can simply roll back its transaction.
+ */
+public class PropellantDispenser {
+
+    /** Name of the context property that marks writes of the dispenser. */
+    public static final String DISPENSED = "dispensed";
+
+    /** Template used to get closed propellant packages. */
+    private static final Propellant LINDA_TEMPLATE_CLOSED =
+            new Propellant(null, null, null, Propellant.CLOSED);
+
+    /** The API used to access the propellant container. */
+    private final Capi capi;
+
+    /**
+     * Create a new propellant dispenser.
+     *
+     * @param capi
+     *          The API of the space containing the propellant container
+     */
+    public PropellantDispenser(final Capi capi) {
+        this.capi = capi;
+    }
+
+    /**
+     * Allocate the propellant for a withdrawal. For every new package the
+     * opened package that fits best is chosen. Closed packages are only used
+     * if there is no opened package left.
+     *
+     * @param withdrawal
+     *          The withdrawal that should be satisfied. The allocations and
+     *          the taken and returned packages are stored in the withdrawal.
+     * @param propellantContainer
+     *          The container storing the propellant packages
+     * @param transaction
+     *          The transaction of the withdrawal
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    public final void dispense(final PropellantWithdrawal withdrawal,
+                               final ContainerReference propellantContainer,
+                               final TransactionReference transaction)
+            throws MzsCoreException {
+        ArrayList<HashMap<Propellant, Integer>> allocations =
+                new ArrayList<>();
+        ArrayList<Propellant> takenPropellants = new ArrayList<>();
+        HashMap<Propellant, Integer> remainingQuantities = new HashMap<>();
+        Propellant propellant = null;
+
+        try {
+            for (int quantity : withdrawal.getQuantities()) {
+                HashMap<Propellant, Integer> propellantsWithQuantity =
+                        new HashMap<>();
+                int missingQuantity = quantity;
+                while (missingQuantity > 0) {
+                    if (propellant == null
+                            || remainingQuantities.get(propellant) == 0) {
+                        propellant = takePackage(propellantContainer,
+                                missingQuantity, transaction);
+                        takenPropellants.add(propellant);
+                        remainingQuantities.put(propellant,
+                                propellant.getQuantity());
+                    }
+                    int remainingQuantity = remainingQuantities.get(
+                            propellant);
+                    int currentQuantity = Math.min(remainingQuantity,
+                            missingQuantity);
+                    remainingQuantities.put(propellant,
+                            remainingQuantity - currentQuantity);
+                    missingQuantity = missingQuantity - currentQuantity;
+                    propellantsWithQuantity.put(propellant, currentQuantity);
+                }
+                allocations.add(propellantsWithQuantity);
+            }
+        } catch (CountNotMetException e) {
+            withdrawal.setAllocations(null);
+            return;
+        }
+
+        // the allocation is complete, so we can change the packages now
+        ArrayList<Entry> propellantEntries = new ArrayList<>();
+        for (Propellant takenPropellant : takenPropellants) {
+            withdrawal.addTakenPackage(takenPropellant);
+            takenPropellant.setQuantity(
+                    remainingQuantities.get(takenPropellant));
+            if (takenPropellant.getQuantity() > 0) {
+                propellantEntries.add(new Entry(takenPropellant,
+                        newCoordinationData()));
+                withdrawal.addReturnedPackage(takenPropellant);
+            }
+        }
+        if (!propellantEntries.isEmpty()) {
+            RequestContext context = new RequestContext();
+            context.setProperty(DISPENSED, true);
+            capi.write(propellantEntries, propellantContainer,
+                    RequestTimeout.TRY_ONCE, transaction, null, context);
+        }
+        withdrawal.setAllocations(allocations);
+    }
+
+    /**
+     * Take the next propellant package for a withdrawal.
+     *
+     * @param propellantContainer
+     *          The container storing the propellant packages
+     * @param neededQuantity
+     *          The quantity of propellant (in grams) that is still needed
+     * @param transaction
+     *          The transaction of the withdrawal
+     * @return The taken propellant package
+     * @throws MzsCoreException
+     *          If there is no propellant package left or there was a problem
+     *          with the space
+     */
+    private Propellant takePackage(
+            final ContainerReference propellantContainer,
+            final int neededQuantity, final TransactionReference transaction)
+            throws MzsCoreException {
+        ArrayList<Propellant> propellants;
+        try {
+            propellants = capi.take(propellantContainer,
+                    asList(Propellant.newBestFitSelector(neededQuantity)),
+                    RequestTimeout.TRY_ONCE, transaction);
+        } catch (CountNotMetException e) {
+            try {
+                propellants = capi.take(propellantContainer,
+                        asList(Propellant.newLargestOpenedSelector()),
+                        RequestTimeout.TRY_ONCE, transaction);
+            } catch (CountNotMetException e1) {
+                propellants = capi.take(propellantContainer,
+                        asList(LindaCoordinator.newSelector(
+                                LINDA_TEMPLATE_CLOSED)),
+                        RequestTimeout.TRY_ONCE, transaction);
+            }
+        }
+        return propellants.get(0);
+    }
+}
@@ -0,0 +1,133 @@
+package org.falafel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A class representing a request to withdraw propellant from the space. A
+ * worker hands the withdrawal to the propellant dispenser, which fills in
+ * the packages and quantities used for each rocket.
+ */
+public class PropellantWithdrawal {
+
+    /** The quantity of propellant (in grams) needed for each rocket. */
+    private final int[] quantities;
+    /** The propellant packages and quantities used by each rocket. */
+    private ArrayList<HashMap<Propellant, Integer>> allocations = null;
+    /** The number of opened packages taken by the dispenser. */
+    private int takenOpenPropellant = 0;
+    /** The quantity of propellant inside the taken opened packages. */
+    private int takenOpenQuantity = 0;
+    /** The number of closed packages taken by the dispenser. */
+    private int takenClosedPropellant = 0;
+    /** The number of packages the dispenser wrote back. */
+    private int returnedPropellant = 0;
+    /** The quantity of propellant inside the packages written back. */
+    private int returnedQuantity = 0;
+
+    /**
+     * Create a new withdrawal.
+     *
+     * @param quantities
+     *          The quantity of propellant (in grams) needed for each rocket
+     */
+    public PropellantWithdrawal(final int[] quantities) {
+        this.quantities = quantities.clone();
+    }
+
+    /**
+     * Return the quantities requested by this withdrawal.
+     *
+     * @return The quantity of propellant (in grams) needed for each rocket
+     */
+    public final int[] getQuantities() {
+        return quantities.clone();
+    }
+
+    /**
+     * Return the propellant used by each rocket.
+     *
+     * @return The propellant packages and quantities used by each rocket or
+     *         {@code null} if the dispenser could not satisfy the withdrawal
+     */
+    public final ArrayList<HashMap<Propellant, Integer>> getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Store the propellant used by each rocket.
+     *
+     * @param allocations
+     *          The propellant packages and quantities used by each rocket
+     */
+    public final void setAllocations(
+            final ArrayList<HashMap<Propellant, Integer>> allocations) {
+        this.allocations = allocations;
+    }
+
+    /**
+     * Return if the dispenser could satisfy the withdrawal.
+     *
+     * @return {@code true} if the requested propellant was allocated,
+     *         {@code false} otherwise
+     */
+    public final boolean isSatisfied() {
+        return allocations != null;
+    }
+
+    /**
+     * Remember that the dispenser took a package from the space.
+     *
+     * @param propellant
+     *          The taken propellant package
+     */
+    public final void addTakenPackage(final Propellant propellant) {
+        if (Propellant.CLOSED.equals(propellant.getStatus())) {
+            takenClosedPropellant++;
+        } else {
+            takenOpenPropellant++;
+            takenOpenQuantity = takenOpenQuantity + propellant.getQuantity();
+        }
+    }
+
+    /**
+     * Remember that the dispenser wrote a package back to the space.
+     *
+     * @param propellant
+     *          The package written back
+     */
+    public final void addReturnedPackage(final Propellant propellant) {
+        returnedPropellant++;
+        returnedQuantity = returnedQuantity + propellant.getQuantity();
+    }
+
+    /**
+     * Return the number of closed packages removed from the space.
+     *
+     * @return The number of closed packages taken by the dispenser
+     */
+    public final int getTakenClosedPropellant() {
+        return takenClosedPropellant;
+    }
+
+    /**
+     * Return by how much the number of opened packages in the space was
+     * reduced. The value is negative if the dispenser opened closed packages
+     * and wrote them back.
+     *
+     * @return The number of opened packages removed from the space
+     */
+    public final int getTakenOpenPropellant() {
+        return takenOpenPropellant - returnedPropellant;
+    }
+
+    /**
+     * Return by how much the quantity of propellant in opened packages was
+     * reduced.
+     *
+     * @return The quantity removed from opened packages in the space
+     */
+    public final int getTakenOpenQuantity() {
+        return takenOpenQuantity - returnedQuantity;
+    }
+}
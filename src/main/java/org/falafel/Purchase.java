@@ -5,7 +5,12 @@ import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import org.mozartspaces.capi3.Index;
+import org.mozartspaces.capi3.Matchmakers;
+import org.mozartspaces.capi3.Property;
+import org.mozartspaces.capi3.Query;
+import org.mozartspaces.capi3.QueryCoordinator;
 import org.mozartspaces.capi3.Queryable;
+import org.mozartspaces.capi3.Selector;
 
 import java.io.Serializable;
 import java.net.URI;
@@ -33,6 +38,12 @@ public class Purchase implements Serializable {
     /** The different states a purchase can be in. */
     public enum PurchaseStatus { Processing, Finished, Shipped }
 
+    /** The properties used to query the number of effects per color. */
+    private static final Property[] COLOR_PROPERTIES = {
+        Property.forName("*", "numberRed"),
+        Property.forName("*", "numberGreen"),
+        Property.forName("*", "numberBlue")};
+
     /** The purchase id for the next purchase. */
     private static int nextPurchaseId = 0;
 
@@ -55,6 +66,15 @@ public class Purchase implements Serializable {
     /** The colors of the three effects that should be part of the produced
      *  rocket for this purchase. */
     private ArrayList<EffectColor> effectColors;
+    /** The number of red effects needed for the rocket. */
+    @Index
+    private Integer numberRed;
+    /** The number of green effects needed for the rocket. */
+    @Index
+    private Integer numberGreen;
+    /** The number of blue effects needed for the rocket. */
+    @Index
+    private Integer numberBlue;
     /** The URI for the space of the buyer of this rocket. */
     private URI buyerURI;
 
@@ -87,6 +107,7 @@ public class Purchase implements Serializable {
         this.effectColors = new ArrayList<>(
                 Arrays.asList(firstEffectColor, secondEffectColor,
                         thirdEffectColor));
+        countEffectColors();
         this.buyerURI = buyerURI;
         status = Processing;
     }
@@ -123,6 +144,7 @@ public class Purchase implements Serializable {
         this.effectColors = new ArrayList<>(
                 Arrays.asList(firstEffectColor, secondEffectColor,
                         thirdEffectColor));
+        countEffectColors();
         this.buyerURI = buyerURI;
         status = Processing;
     }
@@ -157,6 +179,41 @@ public class Purchase implements Serializable {
         this(buyerId, 1, Red, Green, Blue, buyerURI);
     }
 
+    /**
+     * Return a selector for a purchase whose effects are all available. The
+     * selector uses the query coordinator of the purchase container.
+     *
+     * @param inventory
+     *          The effect charges that are currently available
+     * @return A selector for a single purchase that can be built with the
+     *         available effect charges
+     */
+    public static Selector newMatchingSelector(
+            final EffectInventory inventory) {
+        return QueryCoordinator.newSelector(new Query()
+                .filter(Matchmakers.and(
+                        COLOR_PROPERTIES[Red.ordinal()].lessThanOrEqualTo(
+                                inventory.getCount(Red)),
+                        COLOR_PROPERTIES[Green.ordinal()].lessThanOrEqualTo(
+                                inventory.getCount(Green)),
+                        COLOR_PROPERTIES[Blue.ordinal()].lessThanOrEqualTo(
+                                inventory.getCount(Blue))))
+                .cnt(1));
+    }
+
+    /**
+     * Update the number of effects per color after the colors changed.
+     */
+    private void countEffectColors() {
+        int[] numbers = new int[EffectColor.values().length];
+        for (EffectColor color : effectColors) {
+            numbers[color.ordinal()]++;
+        }
+        numberRed = numbers[Red.ordinal()];
+        numberGreen = numbers[Green.ordinal()];
+        numberBlue = numbers[Blue.ordinal()];
+    }
+
     /**
      * Set the value of the next purchase id.
      *
@@ -188,6 +245,48 @@ public class Purchase implements Serializable {
         return new SimpleIntegerProperty(buyerId);
     }
 
+    /**
+     * Get the id of the purchase without creating a property.
+     *
+     * @return The identifier for this purchase
+     */
+    public final int getPurchaseIdValue() {
+        return purchaseId;
+    }
+
+    /**
+     * Get the id of the buyer without creating a property.
+     *
+     * @return The identifier of the buyer
+     */
+    public final int getBuyerIdValue() {
+        return buyerId;
+    }
+
+    /**
+     * Return the key of this purchase. Purchases with the same buyer and
+     * purchase id have the same key.
+     *
+     * @return The key of the purchase
+     */
+    public final long getKey() {
+        return key(buyerId, purchaseId);
+    }
+
+    /**
+     * Combine the id of a buyer and the id of a purchase into a single key.
+     *
+     * @param buyerId
+     *          The identifier of the buyer
+     * @param purchaseId
+     *          The identifier of the purchase
+     * @return The key of the purchase
+     */
+    public static long key(final int buyerId, final int purchaseId) {
+        return ((long) buyerId << Integer.SIZE)
+                | Integer.toUnsignedLong(purchaseId);
+    }
+
     /**
      * Get the space URI of the buyer for the purchase.
      *
@@ -311,6 +410,7 @@ public class Purchase implements Serializable {
      */
     public final void setFirstEffectColor(final String effectColor) {
         this.effectColors.set(0, EffectColor.valueOf(effectColor));
+        countEffectColors();
     }
 
     /**
@@ -322,6 +422,7 @@ public class Purchase implements Serializable {
      */
     public final void setSecondEffectColor(final String effectColor) {
         this.effectColors.set(1, EffectColor.valueOf(effectColor));
+        countEffectColors();
     }
 
     /**
@@ -333,6 +434,7 @@ public class Purchase implements Serializable {
      */
     public final void setThirdEffectColor(final String effectColor) {
         this.effectColors.set(1, EffectColor.valueOf(effectColor));
+        countEffectColors();
     }
 
     /**
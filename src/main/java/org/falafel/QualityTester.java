@@ -1,8 +1,10 @@
 package org.falafel;
 
-import org.mozartspaces.capi3.AnyCoordinator;
+import org.mozartspaces.capi3.ContainerFullException;
+import org.mozartspaces.capi3.ContainerNotFoundException;
 import org.mozartspaces.capi3.CountNotMetException;
 import org.mozartspaces.capi3.FifoCoordinator;
+import org.mozartspaces.capi3.LabelCoordinator;
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
 import org.mozartspaces.core.DefaultMzsCore;
@@ -17,6 +19,7 @@ import org.slf4j.Logger;
 import java.net.URI;
 import java.util.ArrayList;
 
+import static org.mozartspaces.capi3.Selector.COUNT_MAX;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
@@ -24,18 +27,42 @@ import static org.slf4j.LoggerFactory.getLogger;
  * not. The criteria for a defect rocket are if:
  *      more than one effect charge is faulty
  *      it contains less than 120g of the propellant charge
+ *
+ * A tester can test several rockets in a single transaction. The tested
+ * rockets are written back in the order in which they were taken and are
+ * labeled with their quality class, or as ordered if they can be shipped to
+ * a buyer. If the container for tested rockets stays full, the tester puts
+ * the rockets back and tries again later.
  */
 public final class QualityTester {
 
+    /** Specifies how long a tester waits inside the space for a new rocket
+     *  before he starts a new attempt. The tester is woken up as soon as a
+     *  rocket arrives. */
+    private static final int WAIT_TIME_TESTER_MS = 2000;
+    /** Specifies how long a tester waits inside the space for room in the
+     *  container of tested rockets. The tested rockets are put back if there
+     *  is still no room after this time. */
+    private static final int WAIT_TIME_FULL_MS = 1000;
+    /** The time left in a transaction after both waits, e.g. to test the
+     *  rockets and commit. */
+    private static final int TRANSACTION_MARGIN_MS = 2000;
     /**
-     * Constant for the transaction timeout time.
+     * Constant for the transaction timeout time. A transaction always
+     * outlasts the waits for a rocket and for room in the container.
      */
-    private static final int TRANSACTION_TIMEOUT = 3000;
-    /** Specifies how long a tester waits until he tries to get a new rocket
-     *  after he was unable to get one the last time. */
-    private static final int WAIT_TIME_TESTER_MS = 2000;
+    private static final int TRANSACTION_TIMEOUT = WAIT_TIME_TESTER_MS
+            + WAIT_TIME_FULL_MS + TRANSACTION_MARGIN_MS;
+    /** The base delay (in milliseconds) of the backoff policy of the
+     *  tester. */
+    private static final int BACKOFF_BASE_MS = 50;
     /** Constant for how long the shutdown hook is waiting. */
     private static final int WAIT_TIME_TO_SHUTDOWN = 5000;
+    /** The number of rockets a tester tests per transaction if no batch size
+     *  is specified on the command line. */
+    private static final int DEFAULT_BATCH_SIZE = 1;
+    /** The maximum number of command line arguments. */
+    private static final int MAX_ARGUMENTS = 3;
     /**
      * Constant for the minimum.
      */
@@ -65,32 +92,43 @@ public final class QualityTester {
         QualityTester.addShutdownHook();
         System.out.println("Leave the factory with Ctrl + C");
         int testerId;
-        ArrayList<Rocket> rockets;
-        Rocket rocket;
-        ArrayList<Effect> effects;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        ArrayList<RocketHeader> rockets;
 
         Capi capi;
         URI spaceUri;
         TransactionReference getRocketsTransaction = null;
 
-        if (arguments.length != 2) {
-            System.err.println("Usage: QualityTester <Id> <Space URI>!");
+        if (arguments.length < 2 || arguments.length > MAX_ARGUMENTS) {
+            System.err.println("Usage: QualityTester <Id> <Space URI> "
+                    + "[<Batch Size>]!");
             return;
         }
         try {
             testerId = Integer.parseInt(arguments[0]);
             spaceUri = URI.create(arguments[1]);
+            if (arguments.length > 2) {
+                batchSize = Integer.parseInt(arguments[2]);
+            }
         } catch (Exception e) {
             System.err.println("Please supply valid command line arguments!");
             return;
         }
+        if (batchSize < 1) {
+            System.err.println("The batch size has to be at least 1!");
+            return;
+        }
 
         LOGGER.info("Quality tester " + testerId + " ready to test!");
 
         ContainerReference container;
 
         core = DefaultMzsCore.newInstanceWithoutSpace();
-        capi = new Capi(core);
+        capi = new MeteredCapi(core,
+                new TransactionMetrics("QualityTester", testerId));
+        ContainerDirectory directory = new ContainerDirectory(capi);
+        Backoff backoff = new Backoff("QualityTester", testerId,
+                BACKOFF_BASE_MS, WAIT_TIME_TESTER_MS);
         LOGGER.info("Space URI: " + core.getConfig().getSpaceUri());
 
         while (!shutdown) {
@@ -103,57 +141,70 @@ public final class QualityTester {
             }
 
             try {
-                container = capi.lookupContainer("createdRockets", spaceUri,
-                        MzsConstants.RequestTimeout.TRY_ONCE,
-                        getRocketsTransaction);
-                rockets = capi.take(container,
-                        AnyCoordinator.newSelector(1),
-                        MzsConstants.RequestTimeout.TRY_ONCE,
-                        getRocketsTransaction);
-
-                rocket = rockets.get(0);
+                container = directory.lookup("createdRockets", spaceUri);
+                try {
+                    rockets = capi.take(container,
+                            FifoCoordinator.newSelector(batchSize),
+                            MzsConstants.RequestTimeout.TRY_ONCE,
+                            getRocketsTransaction);
+                } catch (CountNotMetException e) {
+                    // Not enough rockets for a whole batch, test the
+                    // rockets that are available
+                    rockets = capi.take(container,
+                            FifoCoordinator.newSelector(COUNT_MAX),
+                            MzsConstants.RequestTimeout.TRY_ONCE,
+                            getRocketsTransaction);
+                }
+                if (rockets.isEmpty()) {
+                    // No rocket at all, wait inside the space for the next
+                    // one
+                    rockets = capi.take(container,
+                            FifoCoordinator.newSelector(1),
+                            WAIT_TIME_TESTER_MS,
+                            getRocketsTransaction);
+                }
 
-                effects = rocket.getEffects();
+                ArrayList<Entry> testedRockets = new ArrayList<>();
+                for (RocketHeader rocket : rockets) {
+                    int defectCount = rocket.getDefectCount();
+                    // more than 1 defect effect the rocket is trashed
+                    // less than the minimum propellant (120g) the rocket is
+                    // trashed
+                    // no defect effect and no less than 130g propellant and
+                    // the rocket is of quality A
+                    // every other rocket is quality B
 
-                int defectCount = 0;
-                for (Effect effect : effects) {
-                    if (effect.getStatus()) {
-                        defectCount++;
+                    if (defectCount > 1 || rocket.getPropellantQuantity()
+                                                    < MINIMAL_PROPELLANT) {
+                        rocket.setTestResult(Rocket.QualityClass.Bad);
+                    } else if (defectCount == 0
+                            && rocket.getPropellantQuantity()
+                                                >= MINIMAL_PROP_CLASS_A) {
+                        rocket.setTestResult(Rocket.QualityClass.A);
+                    } else {
+                        rocket.setTestResult(Rocket.QualityClass.B);
                     }
-                }
-                // more than 1 defect effect the rocket is trashed
-                // less than the minimum propellant (120g) the rocket is trashed
-                // no defect effect and no less than 130g propellant and the
-                // rocket is of quality A
-                // every other rocket is quality B
-
-                if (defectCount > 1 || rocket.getPropellantQuantity()
-                                                        < MINIMAL_PROPELLANT) {
-                    rocket.setQualityClassBad();
-                } else if (defectCount == 0 && rocket.getPropellantQuantity()
-                                                    >= MINIMAL_PROP_CLASS_A) {
-                    rocket.setQualityClassA();
-                } else {
-                    rocket.setQualityClassB();
-                }
 
-                rocket.setTester(testerId);
+                    rocket.setTester(testerId);
+                    testedRockets.add(new Entry(rocket,
+                            FifoCoordinator.newCoordinationData(),
+                            LabelCoordinator.newCoordinationData(
+                                    rocket.getLabel())));
+                }
 
-                container = capi.lookupContainer("testedRockets", spaceUri,
-                        MzsConstants.RequestTimeout.TRY_ONCE,
+                container = directory.lookup("testedRockets", spaceUri);
+                capi.write(testedRockets, container, WAIT_TIME_FULL_MS,
                         getRocketsTransaction);
-                capi.write(container, MzsConstants.RequestTimeout.TRY_ONCE,
-                        getRocketsTransaction, new Entry(rocket,
-                                FifoCoordinator.newCoordinationData()));
 
                 capi.commitTransaction(getRocketsTransaction);
+                backoff.reset();
             } catch (MzsTimeoutException toe) {
+                // No rocket arrived while we were waiting inside the space
                 LOGGER.debug("Can't finish in transaction time!");
                 try {
-                    Thread.sleep(WAIT_TIME_TESTER_MS);
-                } catch (InterruptedException e) {
-                    LOGGER.error("I was interrupted while trying to sleep. "
-                            + "How rude!");
+                    capi.rollbackTransaction(getRocketsTransaction);
+                } catch (MzsCoreException e) {
+                    LOGGER.debug("Transaction already timed out!");
                 }
             } catch (CountNotMetException e1) {
                 LOGGER.info("Could not get a rocket!");
@@ -163,12 +214,25 @@ public final class QualityTester {
                     LOGGER.error("Can't rollback transaction!");
                     System.exit(1);
                 }
+                pause(backoff);
+            } catch (ContainerFullException e) {
+                LOGGER.debug("No room for the tested rockets!");
                 try {
-                    Thread.sleep(WAIT_TIME_TESTER_MS);
-                } catch (InterruptedException e) {
-                    LOGGER.error("I was interrupted while trying to sleep. "
-                            + "How rude!");
+                    capi.rollbackTransaction(getRocketsTransaction);
+                } catch (MzsCoreException e2) {
+                    LOGGER.debug("Can't rollback transaction!");
                 }
+                pause(backoff);
+            } catch (ContainerNotFoundException e) {
+                LOGGER.warn("Space was recreated, looking up containers "
+                        + "again!");
+                directory.invalidate(spaceUri);
+                try {
+                    capi.rollbackTransaction(getRocketsTransaction);
+                } catch (MzsCoreException e2) {
+                    LOGGER.debug("Can't rollback transaction!");
+                }
+                pause(backoff);
             } catch (MzsCoreException e) {
                 LOGGER.error("Tester has problem with space!");
                 System.exit(1);
@@ -176,6 +240,21 @@ public final class QualityTester {
         }
     }
 
+    /**
+     * Wait before the next attempt to test a rocket.
+     *
+     * @param backoff
+     *          The policy that specifies how long the tester waits
+     */
+    private static void pause(final Backoff backoff) {
+        try {
+            backoff.pause();
+        } catch (InterruptedException e) {
+            LOGGER.error("I was interrupted while trying to sleep. "
+                    + "How rude!");
+        }
+    }
+
     /**
      * adds a shutdown hook (called before shutdown).
      */
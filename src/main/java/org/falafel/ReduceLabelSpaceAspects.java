@@ -6,6 +6,8 @@ import org.mozartspaces.core.aspects.AbstractSpaceAspect;
 import org.mozartspaces.core.aspects.AspectResult;
 import org.mozartspaces.core.requests.CommitTransactionRequest;
 
+import java.util.List;
+
 /**
  *  This class implements various aspects involving Materials.
  */
@@ -23,27 +25,45 @@ public class ReduceLabelSpaceAspects extends AbstractSpaceAspect {
             final CommitTransactionRequest request, final Transaction tx) {
 
         RequestContext context = request.getContext();
+        if (context == null) {
+            return AspectResult.OK;
+        }
 
-        if (context.containsProperty("gotMaterial")) {
-            FireWorks.reduceCasingWood(1);
+        if (context.containsProperty("newRockets")) {
+            @SuppressWarnings("unchecked")
+            List<Rocket> rockets =
+                    (List<Rocket>) context.getProperty("newRockets");
+            for (Rocket rocket : rockets) {
+                FireWorks.addNewRocketToTable(rocket);
+            }
+        }
 
-            FireWorks.changeEffectLabels(
-                    (EffectColor) context.getProperty("color1") , -1);
-            FireWorks.changeEffectLabels(
-                    (EffectColor) context.getProperty("color2") , -1);
-            FireWorks.changeEffectLabels(
-                    (EffectColor) context.getProperty("color3") , -1);
+        if (context.containsProperty("addedEffects")) {
+            FireWorks.addToEffectInventory(
+                    (EffectInventory) context.getProperty("addedEffects"));
+        }
 
-            if (context.containsProperty("takenClosedPropellant")) {
-                FireWorks.changeClosedPropellantLabels(-1);
-            }
-            if (context.containsProperty("takenOpenPropellant")) {
-                int number = (int) context.getProperty("takenOpenPropellant");
-                int quantity = (int) context.getProperty("takenOpenQuantity");
+        if (context.containsProperty("gotMaterial")) {
+            FireWorks.reduceCasingWood(
+                    (int) context.getProperty("numberRockets"));
 
-                FireWorks.changeOpenedPropellantLabels(-number, -quantity);
+            EffectInventory effects =
+                    (EffectInventory) context.getProperty("takenEffects");
+            for (EffectColor color : EffectColor.values()) {
+                FireWorks.changeEffectLabels(color, -effects.getCount(color));
             }
+            FireWorks.removeFromEffectInventory(effects);
+        }
+
+        if (context.containsProperty("takenClosedPropellant")) {
+            int number = (int) context.getProperty("takenClosedPropellant");
+            FireWorks.changeClosedPropellantLabels(-number);
+        }
+        if (context.containsProperty("takenOpenPropellant")) {
+            int number = (int) context.getProperty("takenOpenPropellant");
+            int quantity = (int) context.getProperty("takenOpenQuantity");
 
+            FireWorks.changeOpenedPropellantLabels(-number, -quantity);
         }
 
         return AspectResult.OK;
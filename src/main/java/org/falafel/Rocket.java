@@ -5,7 +5,11 @@ import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import org.mozartspaces.capi3.Index;
+import org.mozartspaces.capi3.Property;
+import org.mozartspaces.capi3.Query;
+import org.mozartspaces.capi3.QueryCoordinator;
 import org.mozartspaces.capi3.Queryable;
+import org.mozartspaces.capi3.Selector;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -21,7 +25,10 @@ public class Rocket implements Serializable {
 
     /** The different classes of the rocket. */
     public enum QualityClass { A, B, NotSet, Bad }
+    /** The property used to look up a rocket by its identifier. */
+    private static final Property ID_PROPERTY = Property.forName("*", "id");
     /** The identification of this rocket. */
+    @Index
     private Integer id;
     /** The id of the package that contains this rocket. */
     private Integer packageId = 0;
@@ -399,6 +406,37 @@ public class Rocket implements Serializable {
         this.purchase = purchase;
     }
 
+    /**
+     * Apply the changes made to the header of the rocket by the quality
+     * testers and logistic workers.
+     *
+     * @param header
+     *          The current header of the rocket
+     */
+    public final void update(final RocketHeader header) {
+        qualityClass = header.getTestResult();
+        testerId = header.getTesterId();
+        packerId = header.getPackerId();
+        packageId = header.getPackageId();
+        if (!header.hasPurchase()) {
+            purchase = null;
+        }
+    }
+
+    /**
+     * Create a selector that returns the rocket with the given identifier.
+     *
+     * @param rocketId
+     *          The identifier of the rocket
+     * @return A selector for the query coordinator of the rocket parts
+     *         container
+     */
+    public static Selector newIdSelector(final Integer rocketId) {
+        return QueryCoordinator.newSelector(new Query()
+                .filter(ID_PROPERTY.equalTo(rocketId))
+                .cnt(1));
+    }
+
     /**
      * Return the string representation of the rocket.
      *
@@ -0,0 +1,271 @@
+package org.falafel;
+
+import java.io.Serializable;
+
+/**
+ * This class contains the data of a rocket needed by the quality testers
+ * and logistic workers. The headers are passed through the containers of the
+ * factory, while the whole rocket including all its materials is stored
+ * only once in the container for rocket parts.
+ */
+public class RocketHeader implements Serializable {
+
+    /** The prefix of the labels of tested rockets that were ordered by a
+     *  buyer. */
+    public static final String ORDERED_LABEL = "ordered-";
+    /** The number of partitions the ordered rockets are split into. */
+    public static final int ORDERED_PARTITIONS = 8;
+    /** The multiplier used to combine the buyer and purchase id. */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /** The identification of the rocket. */
+    private Integer rocketId;
+    /** The number of defect effects of the rocket. */
+    private Integer defectCount;
+    /** The whole amount of propellant (in grams) inside the rocket. */
+    private Integer propellantQuantity;
+    /** The id of the tester that checked the rocket. */
+    private Integer testerId;
+    /** The id of the logistician that boxed the rocket. */
+    private Integer packerId;
+    /** The id of the package that contains the rocket. */
+    private Integer packageId;
+    /** The class of the rocket. */
+    private Rocket.QualityClass qualityClass;
+    /** The id of the buyer that ordered the rocket. */
+    private Integer buyerId;
+    /** The id of the purchase for which the rocket was built. */
+    private Integer purchaseId;
+    /** The purchase for which the rocket was built. */
+    private Purchase purchase;
+
+    /**
+     * Create the header for a rocket.
+     *
+     * @param rocket
+     *          The rocket described by the header
+     */
+    public RocketHeader(final Rocket rocket) {
+        rocketId = rocket.getRocketId();
+        defectCount = 0;
+        for (Effect effect : rocket.getEffects()) {
+            if (effect.getStatus()) {
+                defectCount++;
+            }
+        }
+        propellantQuantity = rocket.getPropellantQuantity();
+        testerId = 0;
+        packerId = 0;
+        packageId = 0;
+        qualityClass = rocket.getTestResult();
+        purchase = rocket.getPurchase();
+        if (purchase != null) {
+            buyerId = purchase.getBuyerIdValue();
+            purchaseId = purchase.getPurchaseIdValue();
+        }
+    }
+
+    /**
+     * Create a template that matches the headers of all rockets built for a
+     * certain purchase.
+     *
+     * @param buyerId
+     *          The id of the buyer
+     * @param purchaseId
+     *          The id of the purchase
+     */
+    public RocketHeader(final Integer buyerId, final Integer purchaseId) {
+        this.buyerId = buyerId;
+        this.purchaseId = purchaseId;
+    }
+
+    /**
+     * Return the id of the rocket.
+     *
+     * @return The identifier of the rocket
+     */
+    public final Integer getRocketId() {
+        return rocketId;
+    }
+
+    /**
+     * Return the number of defect effects.
+     *
+     * @return The number of defect effects of the rocket
+     */
+    public final Integer getDefectCount() {
+        return defectCount;
+    }
+
+    /**
+     * Return the quantity of propellant.
+     *
+     * @return The amount of propellant (in grams) inside the rocket
+     */
+    public final Integer getPropellantQuantity() {
+        return propellantQuantity;
+    }
+
+    /**
+     * Return the id of the quality tester.
+     *
+     * @return The id of the tester or 0 if the rocket was not tested yet
+     */
+    public final Integer getTesterId() {
+        return testerId;
+    }
+
+    /**
+     * Set the id of the quality tester who tested the rocket.
+     *
+     * @param testerId
+     *          The id of the quality tester
+     */
+    public final void setTester(final int testerId) {
+        this.testerId = testerId;
+    }
+
+    /**
+     * Return the id of the logistic worker.
+     *
+     * @return The id of the packer or 0 if the rocket was not packed yet
+     */
+    public final Integer getPackerId() {
+        return packerId;
+    }
+
+    /**
+     * Set the id of the worker who packed the rocket in logistics.
+     *
+     * @param packerId
+     *          The id for the packer
+     */
+    public final void setPackerId(final Integer packerId) {
+        this.packerId = packerId;
+    }
+
+    /**
+     * Return the id of the package.
+     *
+     * @return The id of the package containing the rocket
+     */
+    public final Integer getPackageId() {
+        return packageId;
+    }
+
+    /**
+     * Set the id of the package containing the rocket.
+     *
+     * @param packageId
+     *          The id of the package
+     */
+    public final void setPackageId(final Integer packageId) {
+        this.packageId = packageId;
+    }
+
+    /**
+     * Return the result of the quality test.
+     *
+     * @return The quality class of the rocket
+     */
+    public final Rocket.QualityClass getTestResult() {
+        return qualityClass;
+    }
+
+    /**
+     * Set the result of the quality test.
+     *
+     * @param qualityClass
+     *          The quality class of the rocket
+     */
+    public final void setTestResult(final Rocket.QualityClass qualityClass) {
+        this.qualityClass = qualityClass;
+    }
+
+    /**
+     * Return if the rocket was built for a purchase.
+     *
+     * @return {@code true} if the rocket belongs to a purchase,
+     *         {@code false} otherwise
+     */
+    public final boolean hasPurchase() {
+        return purchaseId != null;
+    }
+
+    /**
+     * Return the id of the buyer.
+     *
+     * @return The id of the buyer or {@code null} if the rocket does not
+     *         belong to a purchase
+     */
+    public final Integer getBuyerId() {
+        return buyerId;
+    }
+
+    /**
+     * Return the id of the purchase.
+     *
+     * @return The id of the purchase or {@code null} if the rocket does not
+     *         belong to a purchase
+     */
+    public final Integer getPurchaseId() {
+        return purchaseId;
+    }
+
+    /**
+     * Return the purchase for which the rocket was built.
+     *
+     * @return The purchase of the rocket or {@code null} if the rocket does
+     *         not belong to a purchase
+     */
+    public final Purchase getPurchase() {
+        return purchase;
+    }
+
+    /**
+     * Remove the rocket from its purchase.
+     */
+    public final void removePurchase() {
+        buyerId = null;
+        purchaseId = null;
+        purchase = null;
+    }
+
+    /**
+     * Return the label of the tested rocket. Rockets that can be shipped to
+     * a buyer are labeled with the partition of their purchase, all other
+     * rockets are labeled with their quality class.
+     *
+     * @return The label used to store the rocket in the container for
+     *         tested rockets
+     */
+    public final String getLabel() {
+        if (qualityClass == Rocket.QualityClass.A && hasPurchase()) {
+            return orderedLabel(Math.floorMod(
+                    HASH_MULTIPLIER * buyerId + purchaseId,
+                    ORDERED_PARTITIONS));
+        }
+        return qualityClass.toString();
+    }
+
+    /**
+     * Return the label of a partition of the ordered rockets. All rockets of
+     * a purchase belong to the same partition.
+     *
+     * @param partition
+     *          The number of the partition
+     * @return The label of the ordered rockets in the given partition
+     */
+    public static String orderedLabel(final int partition) {
+        return ORDERED_LABEL + partition;
+    }
+
+    /**
+     * Return the string representation of the header.
+     *
+     * @return A string containing the id of the rocket
+     */
+    public final String toString() {
+        return "Rocket Id: " + rocketId;
+    }
+}
@@ -0,0 +1,150 @@
+package org.falafel;
+
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * This class provides the time and randomness used by all roles of the
+ * factory. By default the clock runs in real time and all random generators
+ * are unseeded.
+ *
+ * The clock can be configured with the following system properties:
+ *
+ * <ul>
+ *     <li>{@code fireworks.clock.scale}: How much faster than real time the
+ *     simulation runs. A scale of {@code 1000} turns a one second build time
+ *     into one millisecond. A scale of {@code 0} disables all simulated
+ *     delays. An invalid or negative scale is replaced by {@code 1}.</li>
+ *     <li>{@code fireworks.clock.seed}: The seed for all random generators.
+ *     If a seed is specified every role makes the same random decisions
+ *     (e.g. build times or propellant quantities) in every run.</li>
+ * </ul>
+ */
+public final class SimulationClock {
+
+    /** The name of the system property specifying the time scale. */
+    public static final String SCALE_PROPERTY = "fireworks.clock.scale";
+    /** The name of the system property specifying the seed. */
+    public static final String SEED_PROPERTY = "fireworks.clock.seed";
+    /** The multiplier used to derive the seeds of different generators. */
+    private static final long SEED_MULTIPLIER = 31;
+    /** The time scale used if no valid scale is specified. */
+    private static final double DEFAULT_SCALE = 1;
+    /** Get the Logger for the current class. */
+    private static final Logger LOGGER = getLogger(SimulationClock.class);
+
+    /** The clock used by the process. */
+    private static final SimulationClock CLOCK = new SimulationClock(
+            readScale(), Long.getLong(SEED_PROPERTY));
+
+    /** How much faster than real time the simulation runs. */
+    private final double scale;
+    /** The seed for all random generators or {@code null} for no seed. */
+    private final Long seed;
+
+    /**
+     * Create a new clock.
+     *
+     * @param scale
+     *          How much faster than real time the simulation runs. A value
+     *          of {@code 0} disables all delays.
+     * @param seed
+     *          The seed for all random generators or {@code null} if the
+     *          generators should not be seeded
+     */
+    private SimulationClock(final double scale, final Long seed) {
+        if (scale < 0) {
+            throw new IllegalArgumentException("The time scale must not be "
+                    + "negative!");
+        }
+        this.scale = scale;
+        this.seed = seed;
+    }
+
+    /**
+     * Read the time scale from the system properties. The clock is created
+     * while the class is initialized, so an invalid scale is replaced by
+     * the default scale instead of failing the initialization.
+     *
+     * @return The configured time scale or {@code 1} if the configured
+     *         scale is invalid
+     */
+    private static double readScale() {
+        String value = System.getProperty(SCALE_PROPERTY);
+        if (value == null) {
+            return DEFAULT_SCALE;
+        }
+        try {
+            double scale = Double.parseDouble(value);
+            if (scale >= 0 && !Double.isInfinite(scale)) {
+                return scale;
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.debug("The time scale is not a number", e);
+        }
+        LOGGER.warn("Invalid time scale \"" + value + "\" in property "
+                + SCALE_PROPERTY + ", the simulation runs in real time!");
+        return DEFAULT_SCALE;
+    }
+
+    /**
+     * Return the clock of the process.
+     *
+     * @return The clock configured by the system properties
+     */
+    public static SimulationClock get() {
+        return CLOCK;
+    }
+
+    /**
+     * Wait for the given simulated time.
+     *
+     * @param millis
+     *          The simulated time (in milliseconds)
+     * @throws InterruptedException
+     *          If the thread was interrupted while it was waiting
+     */
+    public void sleep(final long millis) throws InterruptedException {
+        long realMillis = toRealMillis(millis);
+        if (realMillis > 0) {
+            Thread.sleep(realMillis);
+        }
+    }
+
+    /**
+     * Convert a simulated time into real time. This method can be used to
+     * schedule tasks instead of waiting inside a thread.
+     *
+     * @param millis
+     *          The simulated time (in milliseconds)
+     * @return The real time (in milliseconds)
+     */
+    public long toRealMillis(final long millis) {
+        if (scale == 0) {
+            return 0;
+        }
+        return Math.round(millis / scale);
+    }
+
+    /**
+     * Create a random generator for a certain process. If the clock uses a
+     * seed, the generator returns the same numbers in every run for the same
+     * role and identifier.
+     *
+     * @param role
+     *          The role of the process (e.g. worker)
+     * @param identifier
+     *          The identifier of the process
+     * @return A new random generator
+     */
+    public Random newRandom(final String role, final int identifier) {
+        if (seed == null) {
+            return new Random();
+        }
+        return new Random((seed * SEED_MULTIPLIER + role.hashCode())
+                * SEED_MULTIPLIER + identifier);
+    }
+}
@@ -1,19 +1,24 @@
 package org.falafel;
 
+import org.mozartspaces.capi3.ContainerFullException;
+import org.mozartspaces.capi3.ContainerNotFoundException;
 import org.mozartspaces.capi3.LindaCoordinator;
-import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
-import org.mozartspaces.core.DefaultMzsCore;
 import org.mozartspaces.core.Entry;
 import org.mozartspaces.core.MzsConstants.RequestTimeout;
-import org.mozartspaces.core.MzsCore;
 import org.mozartspaces.core.MzsCoreException;
 import org.mozartspaces.core.MzsTimeoutException;
+import org.mozartspaces.core.RequestContext;
 import org.mozartspaces.core.TransactionReference;
 import org.slf4j.Logger;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -21,27 +26,88 @@ import static org.slf4j.LoggerFactory.getLogger;
  * This class represents a supplier. Suppliers deliver certain
  * {@code Materials} to the firework factory.
  *
+ * A supplier delivers the materials of an order in chunks. All materials of
+ * a chunk are written in a single transaction. The chunk size can be
+ * changed with the system property {@code fireworks.supplier.chunk}. If the
+ * container for the materials is full, the chunk is delivered again after
+ * a backoff delay.
+ *
+ * Suppliers do not own a thread. Every supplier is a sequence of short
+ * steps executed by a scheduler shared by all suppliers of the process. A
+ * step either loads a single material or delivers a chunk and then
+ * schedules the next step of the supplier. This way the steps of different
+ * orders are interleaved and the number of threads does not depend on the
+ * number of orders. The number of steps executed at the same time can be
+ * changed with the system property {@code fireworks.supplier.threads}.
  */
-public class Supplier extends Thread {
+public class Supplier implements Runnable {
 
+    /** The name of the system property specifying how many materials a
+     *  supplier delivers per transaction. */
+    public static final String CHUNK_SIZE_PROPERTY =
+            "fireworks.supplier.chunk";
+    /** The name of the system property specifying how many supplier steps
+     *  are executed at the same time. */
+    public static final String THREADS_PROPERTY =
+            "fireworks.supplier.threads";
     /** Constant for the lower bound of the loading time per element. */
     private static final int LOWERBOUND = 1000;
     /** Constant for the upper bound of the loading time per element. */
     private static final int UPPERBOUND = 2000;
     /** Constant for the transaction timeout time. */
     private static final int TRANSACTIONTIMEOUT = 3000;
+    /** The delay before the first retry of a failed delivery. The delay is
+     *  at most {@code UPPERBOUND}. */
+    private static final int BACKOFF_BASE_MS = 50;
     /** Constant for the division by 100. */
     private static final double HUNDRED = 100.0;
-    /** Save the (unique) identifier for this supplier. */
-    private final int id;
+    /** The number of materials delivered per transaction if no chunk size is
+     *  specified. */
+    private static final int DEFAULT_CHUNK_SIZE = 10;
+    /** The number of materials delivered per transaction. */
+    private static final int CHUNK_SIZE = Math.max(1, Integer.getInteger(
+            CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE));
+    /** The number of supplier steps executed at the same time if no number
+     *  is specified. */
+    private static final int DEFAULT_THREADS = 4;
+    /** The number of the next thread of the scheduler. */
+    private static final AtomicInteger NEXT_THREAD = new AtomicInteger(1);
+    /** The scheduler executing the steps of all suppliers. */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newScheduledThreadPool(Math.max(1, Integer.getInteger(
+                    THREADS_PROPERTY, DEFAULT_THREADS)), runnable -> {
+                        Thread thread = new Thread(runnable, "supplier-"
+                                + NEXT_THREAD.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+    /** The identifier used for the transaction metrics of the suppliers. */
+    private static final int METRICS_ID = 0;
+    /** The transaction metrics shared by all suppliers of the process. */
+    private static final TransactionMetrics METRICS =
+            new TransactionMetrics("Supplier", METRICS_ID);
     /** Get the Logger for the current class. */
     private static final Logger LOGGER = getLogger(Supplier.class);
+    /** Save the (unique) identifier for this supplier. */
+    private final int id;
     /** The resource identifier for the space. */
     private final URI spaceUri;
     /** The order which the supplier shipped. */
     private final SupplyOrder order;
     /** Save the (unique) identifier for the materials in this order. */
     private final int materialId;
+    /** The materials of the chunk that is currently loaded. */
+    private final ArrayList<Entry> chunk = new ArrayList<>();
+    /** The random generator used to choose the loading times. */
+    private final Random randomGenerator;
+    /** The references to the containers the supplier delivers to. */
+    private final ContainerDirectory directory;
+    /** The number of materials that were already delivered. */
+    private int deliveredMaterials = 0;
+    /** The API used to access the space. */
+    private MeteredCapi capi;
+    /** The policy used to wait before a failed delivery is retried. */
+    private Backoff backoff;
 
     /**
      * Create a new Supplier with a given id.
@@ -55,106 +121,229 @@ public class Supplier extends Thread {
      * @param startId
      *          Saves the first identifier of the ids that should be used for
      *          the materials in the order.
+     * @param directory
+     *          The directory used to look up the containers of the factory.
+     *          The directory can be shared with other suppliers.
      */
     public Supplier(final int identifier, final URI space,
-                    final SupplyOrder order, final int startId) {
-        super();
+                    final SupplyOrder order, final int startId,
+                    final ContainerDirectory directory) {
         id = identifier;
         spaceUri = space;
         this.order = order;
         materialId = startId;
+        this.directory = directory;
+        randomGenerator = SimulationClock.get().newRandom("Supplier", id);
     }
 
     /**
-     * Start the supplier.
+     * Start the supplier. The supplier loads its first material as soon as
+     * the scheduler has a free thread.
      */
-    public final void run() {
-
-        int functioningElements = (int) Math.ceil(
-                order.getQuantity() * order.getQuality() / HUNDRED);
-        boolean defect;
+    public final void start() {
+        System.out.println("Supplier " + id + " active!");
+        capi = new MeteredCapi(ClientCorePool.get().acquire(spaceUri),
+                METRICS);
+        backoff = new Backoff("Supplier", id, BACKOFF_BASE_MS, UPPERBOUND);
+        if (order.getQuantity() > 0) {
+            scheduleNextStep(loadingTime());
+        } else {
+            finish();
+        }
+    }
 
-        ContainerReference container;
-        MzsCore core = DefaultMzsCore.newInstanceWithoutSpace();
-        Capi capi = new Capi(core);
-        Material newEntry;
+    /**
+     * Execute the next step of the supplier. The supplier loads the next
+     * material of the current chunk. If the chunk is complete, it is
+     * delivered to the factory.
+     */
+    public final void run() {
+        int chunkSize = Math.min(CHUNK_SIZE,
+                order.getQuantity() - deliveredMaterials);
+        chunk.add(newEntry(deliveredMaterials + chunk.size()));
+        if (chunk.size() < chunkSize) {
+            scheduleNextStep(loadingTime());
+            return;
+        }
+        deliverChunk();
+    }
 
+    /**
+     * Deliver the current chunk in a single transaction. If the delivery
+     * fails the same chunk is delivered again after a backoff delay.
+     */
+    private void deliverChunk() {
         String orderType = order.getType();
-        String orderSupplier = order.getSupplierName();
-        String casing = MaterialType.Casing.toString();
-        String effect = MaterialType.Effect.toString();
-        String propellant = MaterialType.Propellant.toString();
         TransactionReference supplyTransaction;
+        try {
+            supplyTransaction = capi.createTransaction(
+                    TRANSACTIONTIMEOUT, spaceUri);
+        } catch (MzsCoreException e) {
+            LOGGER.debug("Can't create transaction!");
+            finish();
+            return;
+        }
 
-        System.out.println("Supplier " + id + " active!");
+        try {
+            ContainerReference container =
+                    directory.lookup(orderType, spaceUri);
+            capi.write(chunk, container, RequestTimeout.ZERO,
+                    supplyTransaction);
+            capi.commitTransaction(supplyTransaction, commitContext());
+            backoff.reset();
 
-        Random randomGenerator = new Random();
-
-        for (int index = 0; index < order.getQuantity(); index++) {
-
-            if (orderType.equals(casing)) {
-                newEntry = new Casing(materialId, orderSupplier, id);
-            } else if (orderType.equals(effect)) {
-                defect = index >= functioningElements;
-                newEntry = new Effect(materialId, orderSupplier, id, defect,
-                        order.getColor());
-            } else if (orderType.equals(propellant)) {
-                newEntry = new Propellant(materialId, orderSupplier, id,
-                        Propellant.CLOSED);
-            } else {
-                newEntry = new Wood(materialId, orderSupplier, id);
+            LOGGER.debug("Supplier " + id + " wrote " + chunk.size()
+                    + " entries to container " + orderType);
+        } catch (MzsTimeoutException toe) {
+            LOGGER.debug("Can't write in container in transaction time!");
+            try {
+                capi.rollbackTransaction(supplyTransaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Transaction already timed out!");
             }
-
-            int waitingTime = randomGenerator.nextInt(
-                    UPPERBOUND - LOWERBOUND) + LOWERBOUND;
+            scheduleRetry();
+            return;
+        } catch (ContainerFullException e) {
+            LOGGER.debug("Container " + orderType + " is full, supplier "
+                    + id + " waits before delivering again!");
             try {
-                Thread.sleep(waitingTime);
-            } catch (InterruptedException e) {
-                LOGGER.error("I was interrupted while trying to sleep. "
-                        + "How rude!");
+                capi.rollbackTransaction(supplyTransaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
             }
-
+            scheduleRetry();
+            return;
+        } catch (ContainerNotFoundException e) {
+            LOGGER.warn("Space was recreated, supplier " + id + " looks up "
+                    + "the container " + orderType + " again!");
             try {
-                supplyTransaction = capi.createTransaction(
-                        TRANSACTIONTIMEOUT, spaceUri);
-            } catch (MzsCoreException e) {
-                LOGGER.debug("Can't create transaction!");
-                return;
+                capi.rollbackTransaction(supplyTransaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
             }
-
+            directory.invalidate(spaceUri);
+            scheduleRetry();
+            return;
+        } catch (MzsCoreException e) {
             try {
+                capi.rollbackTransaction(supplyTransaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
+            }
+            scheduleRetry();
+            return;
+        }
+
+        deliveredMaterials = deliveredMaterials + chunk.size();
+        chunk.clear();
+        if (deliveredMaterials < order.getQuantity()) {
+            scheduleNextStep(loadingTime());
+        } else {
+            finish();
+        }
+    }
 
-                newEntry.setID(materialId + index);
-                container = capi.lookupContainer(orderType, spaceUri,
-                        RequestTimeout.TRY_ONCE, supplyTransaction);
-
-                if (orderType.equals(propellant)) {
-                    capi.write(container, RequestTimeout.ZERO,
-                            supplyTransaction,
-                            new Entry(newEntry,
-                                      LindaCoordinator.newCoordinationData()));
-                } else {
-                    capi.write(container, RequestTimeout.ZERO,
-                            supplyTransaction, new Entry(newEntry));
-                }
-
-                capi.commitTransaction(supplyTransaction);
-
-                LOGGER.debug("Supplier " + id + " Wrote entry to container "
-                        + orderType);
-            } catch (MzsTimeoutException toe) {
-                index--;
-                LOGGER.debug("Can't write in container in transaction time!");
-            } catch (MzsCoreException e) {
-                index--;
-                try {
-                    capi.rollbackTransaction(supplyTransaction);
-                } catch (MzsCoreException e1) {
-                    LOGGER.debug("Can't rollback transaction!");
-                }
+    /**
+     * Create the context for the commit of the current chunk. The factory
+     * adds delivered effect charges to its inventory only after the chunk
+     * was committed.
+     *
+     * @return The request context of the commit
+     */
+    private RequestContext commitContext() {
+        RequestContext context = new RequestContext();
+        if (order.getType().equals(MaterialType.Effect.toString())) {
+            EffectInventory effects = new EffectInventory();
+            for (Entry entry : chunk) {
+                effects.add((Effect) entry.getValue());
             }
+            context.setProperty("addedEffects", effects);
         }
+        return context;
+    }
 
-        core.shutdown(true);
+    /**
+     * Schedule another attempt to deliver the current chunk.
+     */
+    private void scheduleRetry() {
+        // the backoff delay is real time, only simulated work is scaled
+        schedule(this::deliverChunk, backoff.nextDelay());
+    }
+
+    /**
+     * Schedule the next step of the supplier.
+     *
+     * @param delay
+     *          The simulated time (in milliseconds) until the next step
+     */
+    private void scheduleNextStep(final long delay) {
+        schedule(this, SimulationClock.get().toRealMillis(delay));
+    }
+
+    /**
+     * Schedule a step of the supplier. The scheduler silently drops
+     * exceptions of its tasks, so a step that fails unexpectedly is logged
+     * here and the supplier stops.
+     *
+     * @param step
+     *          The step executed by the scheduler
+     * @param delay
+     *          The real time (in milliseconds) until the step is executed
+     */
+    private void schedule(final Runnable step, final long delay) {
+        SCHEDULER.schedule(() -> {
+            try {
+                step.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Supplier " + id + " stopped because of an "
+                        + "unexpected problem!", e);
+                finish();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Choose how long it takes to load the next material.
+     *
+     * @return The loading time (in milliseconds)
+     */
+    private int loadingTime() {
+        return randomGenerator.nextInt(UPPERBOUND - LOWERBOUND) + LOWERBOUND;
+    }
+
+    /**
+     * Release the resources of the supplier after the order was delivered.
+     */
+    private void finish() {
+        backoff.unregister();
+        ClientCorePool.get().release(spaceUri);
+    }
+
+    /**
+     * Create the entry for a single material of the order.
+     *
+     * @param index
+     *          The position of the material in the order
+     * @return The entry containing the new material
+     */
+    private Entry newEntry(final int index) {
+        int functioningElements = (int) Math.ceil(
+                order.getQuantity() * order.getQuality() / HUNDRED);
+        String orderType = order.getType();
+        String orderSupplier = order.getSupplierName();
+        int newId = materialId + index;
+
+        if (orderType.equals(MaterialType.Casing.toString())) {
+            return new Entry(new Casing(newId, orderSupplier, id));
+        } else if (orderType.equals(MaterialType.Effect.toString())) {
+            boolean defect = index >= functioningElements;
+            return new Entry(new Effect(newId, orderSupplier, id, defect,
+                    order.getColor()));
+        } else if (orderType.equals(MaterialType.Propellant.toString())) {
+            return new Entry(new Propellant(newId, orderSupplier, id,
+                    Propellant.CLOSED),
+                    LindaCoordinator.newCoordinationData());
+        }
+        return new Entry(new Wood(newId, orderSupplier, id));
     }
 }
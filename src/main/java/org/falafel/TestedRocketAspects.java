@@ -38,10 +38,10 @@ public class TestedRocketAspects extends AbstractContainerAspect {
 
         List<Entry> entries = request.getEntries();
 
-        if (entries.get(0).getValue() instanceof Rocket) {
+        if (entries.get(0).getValue() instanceof RocketHeader) {
             for (Entry entry : entries) {
-                Rocket rocket = (Rocket) entry.getValue();
-                FireWorks.updateOfARocketInRocketsTable(rocket);
+                RocketHeader header = (RocketHeader) entry.getValue();
+                FireWorks.updateOfARocketInRocketsTable(header);
             }
         }
         return AspectResult.OK;
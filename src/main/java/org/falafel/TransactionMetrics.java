@@ -0,0 +1,214 @@
+package org.falafel;
+
+import org.slf4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * This class records the outcome and latency of space requests. The data is
+ * broken down by operation (e.g. take or commit) and container and is
+ * published as MXBean for the role of the process. All counters are lock
+ * free, so the metrics can always be enabled.
+ */
+public class TransactionMetrics implements TransactionMetricsMXBean {
+
+    /** The possible outcomes of a request. */
+    public enum Outcome {
+        /** The request was successful. */
+        OK,
+        /** The request did not finish in time. */
+        TIMEOUT,
+        /** The container did not contain enough entries. */
+        COUNT_NOT_MET,
+        /** The request failed for any other reason. */
+        ERROR
+    }
+
+    /** Get the Logger for the current class. */
+    private static final Logger LOGGER = getLogger(TransactionMetrics.class);
+    /** The upper limits (in milliseconds) of the latency buckets. */
+    private static final long[] BUCKET_LIMITS =
+        {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /** The role of the process. */
+    private final String role;
+    /** The name used to register the metrics as MXBean. */
+    private final ObjectName name;
+    /** The statistics for every operation and container. */
+    private final ConcurrentMap<String, Statistics> statistics =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Create new metrics for a process and register them as MXBean.
+     *
+     * @param role
+     *          The role of the process (e.g. worker)
+     * @param identifier
+     *          The identifier of the process
+     */
+    public TransactionMetrics(final String role, final int identifier) {
+        this.role = role;
+        ObjectName objectName = null;
+        try {
+            objectName = new ObjectName("org.falafel:type=TransactionMetrics,"
+                    + "role=" + role + ",id=" + identifier);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Could not register transaction metrics for " + role
+                    + " " + identifier + "!");
+            objectName = null;
+        }
+        name = objectName;
+    }
+
+    /**
+     * Remove the MXBean of these metrics. This method should be called if
+     * the process stops using the space.
+     */
+    public final void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOGGER.debug("Could not unregister transaction metrics!");
+        }
+    }
+
+    /**
+     * Record a finished request.
+     *
+     * @param operation
+     *          The name of the operation (e.g. take or commit)
+     * @param container
+     *          The name of the container used by the request
+     * @param outcome
+     *          The outcome of the request
+     * @param startTime
+     *          The value of {@link System#nanoTime()} when the request was
+     *          sent
+     */
+    public final void record(final String operation, final String container,
+                             final Outcome outcome, final long startTime) {
+        String key = operation + ":" + container;
+        Statistics operationStatistics = statistics.get(key);
+        if (operationStatistics == null) {
+            statistics.putIfAbsent(key, new Statistics());
+            operationStatistics = statistics.get(key);
+        }
+        operationStatistics.record(outcome, TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - startTime));
+    }
+
+    @Override
+    public final String getRole() {
+        return role;
+    }
+
+    @Override
+    public final Map<String, Long> getCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+            for (Outcome outcome : Outcome.values()) {
+                counts.put(entry.getKey() + ":"
+                        + outcome.toString().toLowerCase(),
+                        entry.getValue().getCount(outcome));
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public final Map<String, long[]> getLatencyHistograms() {
+        Map<String, long[]> histograms = new TreeMap<>();
+        for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().getHistogram());
+        }
+        return histograms;
+    }
+
+    @Override
+    public final long[] getBucketLimits() {
+        return BUCKET_LIMITS.clone();
+    }
+
+    /**
+     * This class stores the outcome counts and the latency histogram of a
+     * single operation and container.
+     */
+    private static final class Statistics {
+
+        /** The number of requests for every outcome. */
+        private final LongAdder[] counts =
+                new LongAdder[Outcome.values().length];
+        /** The number of requests for every latency bucket. */
+        private final LongAdder[] buckets =
+                new LongAdder[BUCKET_LIMITS.length + 1];
+
+        /**
+         * Create new empty statistics.
+         */
+        Statistics() {
+            for (int index = 0; index < counts.length; index++) {
+                counts[index] = new LongAdder();
+            }
+            for (int index = 0; index < buckets.length; index++) {
+                buckets[index] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record a finished request.
+         *
+         * @param outcome
+         *          The outcome of the request
+         * @param latency
+         *          The time (in milliseconds) the request took
+         */
+        void record(final Outcome outcome, final long latency) {
+            counts[outcome.ordinal()].increment();
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS.length
+                    && latency > BUCKET_LIMITS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        /**
+         * Return the number of requests with the given outcome.
+         *
+         * @param outcome
+         *          The outcome of the requests
+         * @return The number of requests
+         */
+        long getCount(final Outcome outcome) {
+            return counts[outcome.ordinal()].sum();
+        }
+
+        /**
+         * Return the latency histogram.
+         *
+         * @return The number of requests for every latency bucket
+         */
+        long[] getHistogram() {
+            long[] histogram = new long[buckets.length];
+            for (int index = 0; index < buckets.length; index++) {
+                histogram[index] = buckets[index].sum();
+            }
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.falafel;
+
+import java.util.Map;
+
+/**
+ * This interface describes the transaction metrics of a process that are
+ * published via JMX.
+ */
+public interface TransactionMetricsMXBean {
+
+    /**
+     * Return the role of the process.
+     *
+     * @return The name of the role (e.g. worker or supplier)
+     */
+    String getRole();
+
+    /**
+     * Return how often each operation finished with each outcome. The keys
+     * have the form {@code operation:container:outcome}, e.g.
+     * {@code take:createdRockets:timeout}.
+     *
+     * @return The number of requests for every operation, container and
+     *         outcome
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Return the latency histogram of every operation. The keys have the
+     * form {@code operation:container}. Every histogram contains the number
+     * of requests for each bucket of {@link #getBucketLimits()}.
+     *
+     * @return The latency histograms for every operation and container
+     */
+    Map<String, long[]> getLatencyHistograms();
+
+    /**
+     * Return the upper limits of the latency buckets. The last bucket of a
+     * histogram counts all requests that took longer than the last limit.
+     *
+     * @return The upper limits (in milliseconds) of the latency buckets
+     */
+    long[] getBucketLimits();
+}
@@ -39,11 +39,9 @@ public class TrashedRocketAspects extends AbstractContainerAspect {
         List<Entry> entries = request.getEntries();
 
 
-        if (entries.get(0).getValue() instanceof Rocket) {
+        if (entries.get(0).getValue() instanceof RocketHeader) {
             for (Entry entry : entries) {
-                Rocket rocket = (Rocket) entry.getValue();
-                FireWorks.addRocketToTrash(rocket);
-                FireWorks.updateOfARocketInRocketsTable(rocket);
+                FireWorks.addRocketToTrash((RocketHeader) entry.getValue());
             }
         }
         return AspectResult.OK;
@@ -1,7 +1,10 @@
 package org.falafel;
 
 import org.mozartspaces.capi3.AnyCoordinator;
+import org.mozartspaces.capi3.ContainerFullException;
+import org.mozartspaces.capi3.ContainerNotFoundException;
 import org.mozartspaces.capi3.CountNotMetException;
+import org.mozartspaces.capi3.FifoCoordinator;
 import org.mozartspaces.capi3.LindaCoordinator;
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
@@ -14,28 +17,46 @@ import org.mozartspaces.core.RequestContext;
 import org.mozartspaces.core.TransactionReference;
 import org.slf4j.Logger;
 
+import java.io.Serializable;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Arrays.asList;
-import static org.mozartspaces.capi3.LindaCoordinator.newCoordinationData;
+import static java.util.Collections.singletonList;
 import static org.mozartspaces.core.MzsConstants.RequestTimeout;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
  * This class represents a worker. A worker collects material from the space
  * and uses them to create a rocket.
+ *
+ * A worker can collect the material for several rockets at once. In this
+ * case all material for the whole batch is taken in a single transaction and
+ * all rockets of the batch are written to the space in a single transaction.
+ *
+ * A single worker process can host multiple workers. These workers share the
+ * same core but each of them uses its own identifier.
  */
-public final class Worker {
+public final class Worker implements Runnable {
 
     /** Constant for the transaction timeout time. */
     private static final int TRANSACTION_TIMEOUT = 5000;
-    /** Specifies how long a worker waits until he tries to get new material
-     *  after he failed the last time. */
+    /** Specifies how long a worker waits inside the space for missing
+     *  material before he starts a new attempt. The worker is woken up as
+     *  soon as the material arrives. */
     private static final int WAIT_TIME_WORKER_MS = 2000;
+    /** The base delay (in milliseconds) of the backoff policy of a worker. */
+    private static final int BACKOFF_BASE_MS = 50;
     /** Constant for the lower bound of the working time per element. */
     private static final int LOWERBOUND = 1000;
     /** Constant for the upper bound of the working time per element. */
@@ -44,353 +65,935 @@ public final class Worker {
     private static final int LOWERQUANTITY = 115;
     /** Constant for the upper bound of the propellant quantity. */
     private static final int UPPERQUANTITY = 145;
-    /** Constant for how long the shutdown hook is waiting. */
+    /** Constant for how long the shutdown hook waits in addition to the
+     *  time needed to build a batch of rockets. */
     private static final int WAIT_TIME_TO_SHUTDOWN = 5000;
+    /** The number of rockets a worker builds per transaction if no batch size
+     *  is specified on the command line. */
+    private static final int DEFAULT_BATCH_SIZE = 1;
+    /** The number of workers started by the process if no number is
+     *  specified on the command line. */
+    private static final int DEFAULT_NUMBER_WORKERS = 1;
+    /** The maximum number of command line arguments. */
+    private static final int MAX_ARGUMENTS = 4;
+    /** The maximum number of attempts to deliver a batch of rockets to a
+     *  full factory before the worker gives up. */
+    private static final int MAX_DELIVERY_ATTEMPTS = 20;
+    /** Specifies how long a worker waits for the effect inventory while the
+     *  factory replaces it with a new copy. */
+    private static final int INVENTORY_WAIT_MS = 200;
 
     /** Get the Logger for the current class. */
     private static final Logger LOGGER = getLogger(Worker.class);
     /** How many effect charges are needed to build a rocket. */
     private static final int NUMBER_EFFECTS_NEEDED = 3;
-    /** The mozart spaces core. */
+    /** Template used to get closed propellant packages. */
+    private static final Propellant LINDA_TEMPLATE_CLOSED =
+            new Propellant(null, null, null, Propellant.CLOSED);
+    /** The mozart spaces core shared by all workers of the process. */
     private static MzsCore core;
+    /** The threads executing the workers of the process. */
+    private static ExecutorService workers;
     /** Flag to tell if the program is shutdown. */
-    private static boolean shutdown = false;
+    private static volatile boolean shutdown = false;
+    /** Flag to tell if the mozart spaces core was already shut down. */
+    private static boolean coreStopped = false;
+    /** Specifies how long the shutdown hook waits until the workers
+     *  finished their current batch of rockets. */
+    private static volatile long shutdownWaitMs = WAIT_TIME_TO_SHUTDOWN;
 
-    /** Create the worker singleton. */
-    private Worker() { }
+    /** The identifier of this worker. */
+    private final int workerId;
+    /** The resource identifier of the space. */
+    private final URI spaceUri;
+    /** The number of rockets built per transaction. */
+    private final int batchSize;
+    /** The API used to access the space. */
+    private final Capi capi;
+    /** The references to the containers used by the worker. */
+    private final ContainerDirectory directory;
+    /** The random generator of this worker. */
+    private final Random randomGenerator;
+    /** The policy used to wait before a failed attempt is retried. */
+    private final Backoff backoff;
+    /** The dispenser used to withdraw propellant. */
+    private final PropellantDispenser dispenser;
 
     /**
-     * Start the worker process.
+     * Create a new worker.
+     *
+     * @param workerId
+     *          The identifier of the worker
+     * @param spaceUri
+     *          The resource identifier of the space
+     * @param batchSize
+     *          The number of rockets the worker builds per transaction
+     * @param capi
+     *          The API used to access the space. It can be shared with other
+     *          workers.
+     * @param directory
+     *          The references to the containers of the space. The directory
+     *          can be shared with other workers.
+     */
+    public Worker(final int workerId, final URI spaceUri,
+                  final int batchSize, final Capi capi,
+                  final ContainerDirectory directory) {
+        this.workerId = workerId;
+        this.spaceUri = spaceUri;
+        this.batchSize = batchSize;
+        this.capi = capi;
+        this.directory = directory;
+        dispenser = new PropellantDispenser(capi);
+        randomGenerator = SimulationClock.get().newRandom("Worker", workerId);
+        backoff = new Backoff("Worker", workerId, BACKOFF_BASE_MS,
+                WAIT_TIME_WORKER_MS);
+    }
+
+    /**
+     * Start the worker process. The process hosts a number of workers that
+     * all share the same core. Every worker uses its own identifier starting
+     * with the given id.
      *
      * @param arguments
      *          A list containing the command line arguments.
      *
      */
     public static void main(final String[] arguments) {
-        Worker.addShutdownHook();
-        System.out.println("Leave the factory with Ctrl + C");
-        int workerId;
-        boolean gotPurchase;
-        Random randomGenerator = new Random();
-        int propellantQuantity = 0;
-
-        Propellant lindaTemplateClosed = new Propellant(null, null, null,
-                Propellant.CLOSED);
-        Propellant lindaTemplateOpened = new Propellant(null, null, null,
-                Propellant.OPENED);
-
-        Capi capi;
+        int firstWorkerId;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        int numberWorkers = DEFAULT_NUMBER_WORKERS;
         URI spaceUri;
-        TransactionReference collectResourcesTransaction = null;
-        Casing casing = null;
-        ArrayList<Effect> effects = new ArrayList<>();
-        HashMap<Propellant, Integer> propellantsWithQuantity =
-                new HashMap<>();
-        Wood wood = null;
 
-        if (arguments.length != 2) {
-            System.err.println("Usage: worker <Id> <Space URI>!");
+        if (arguments.length < 2 || arguments.length > MAX_ARGUMENTS) {
+            System.err.println("Usage: worker <Id> <Space URI> "
+                    + "[<Batch Size> [<Number Workers>]]!");
             return;
         }
 
         try {
-            workerId = Integer.parseInt(arguments[0]);
+            firstWorkerId = Integer.parseInt(arguments[0]);
             spaceUri = URI.create(arguments[1]);
+            if (arguments.length > 2) {
+                batchSize = Integer.parseInt(arguments[2]);
+            }
+            if (arguments.length > MAX_ARGUMENTS - 1) {
+                numberWorkers = Integer.parseInt(arguments[MAX_ARGUMENTS - 1]);
+            }
         } catch (Exception e) {
             System.err.println("Please supply valid command line arguments!");
             return;
         }
+        if (batchSize < 1 || numberWorkers < 1) {
+            System.err.println("The batch size and the number of workers have "
+                    + "to be at least 1!");
+            return;
+        }
 
-        LOGGER.info("Worker " + workerId + " ready to work!");
-
-        ContainerReference containerReference;
+        // A worker finishes the batch he is building before he stops, so the
+        // shutdown hook has to wait at least as long as a batch takes
+        shutdownWaitMs = SimulationClock.get().toRealMillis(
+                (long) batchSize * UPPERBOUND) + WAIT_TIME_TO_SHUTDOWN;
+        Worker.addShutdownHook();
+        System.out.println("Leave the factory with Ctrl + C");
 
         core = DefaultMzsCore.newInstanceWithoutSpace();
-        capi = new Capi(core);
+        Capi capi = new MeteredCapi(core,
+                new TransactionMetrics("Worker", firstWorkerId));
+        ContainerDirectory directory = new ContainerDirectory(capi);
         LOGGER.info("Space URI: " + core.getConfig().getSpaceUri());
 
-        while (!shutdown) {
-            try {
-                RequestContext context = new RequestContext();
-                Purchase purchase = null;
-                gotPurchase = false;
+        workers = Executors.newFixedThreadPool(numberWorkers);
+        for (int worker = 0; worker < numberWorkers; worker++) {
+            workers.execute(new Worker(firstWorkerId + worker, spaceUri,
+                    batchSize, capi, directory));
+        }
+        // No new workers are started, wait until every worker stopped,
+        // either because the user left the factory or because a worker
+        // requested a shutdown of the whole process
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(WAIT_TIME_TO_SHUTDOWN,
+                    TimeUnit.MILLISECONDS)) {
+                LOGGER.debug("Workers are still working");
+            }
+        } catch (InterruptedException e) {
+            LOGGER.error("I was interrupted while waiting for the workers!");
+        }
+        stopCore();
+    }
 
-                try {
-                    collectResourcesTransaction = capi.createTransaction(
-                            TRANSACTION_TIMEOUT, spaceUri, context);
-                } catch (MzsCoreException e) {
-                    LOGGER.error("Can't create transaction!");
-                    System.exit(1);
-                }
+    /**
+     * Collect material and build rockets until the process is shutdown.
+     *
+     * The worker collects the material for the next batch of rockets while
+     * he builds the current batch. He never holds more than one kit of
+     * material in addition to the one he is working on.
+     */
+    public final void run() {
+        ExecutorService collector = Executors.newSingleThreadExecutor();
+        Future<Kit> nextKit = null;
+
+        LOGGER.info("Worker " + workerId + " ready to work!");
 
+        try {
+            nextKit = collector.submit(this::collectKit);
+            while (nextKit != null) {
+                Kit kit = null;
                 try {
-                    containerReference = capi.lookupContainer(
-                            "purchase",
-                            spaceUri,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context);
-                    purchase = (Purchase) capi.take(containerReference,
-                            null,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context).get(0);
-                    gotPurchase = true;
-                } catch (MzsTimeoutException toe) {
-                    LOGGER.debug("Can't finish in transaction time!");
+                    kit = nextKit.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ContainerNotFoundException) {
+                        LOGGER.warn("Space was recreated, looking up "
+                                + "containers again!");
+                        directory.invalidate(spaceUri);
+                        backoff.pause();
+                    } else {
+                        LOGGER.error("Worker " + workerId + " has a space "
+                                + "problem!", e.getCause());
+                        requestShutdown();
+                        break;
+                    }
+                }
+                // Start collecting the material for the next batch before we
+                // build the current one
+                nextKit = null;
+                if (!shutdown) {
+                    nextKit = collector.submit(this::collectKit);
+                }
+                if (kit != null) {
                     try {
-                        Thread.sleep(WAIT_TIME_WORKER_MS);
-                    } catch (InterruptedException e) {
-                        LOGGER.error("I was interrupted while trying to sleep. "
-                                + "How rude!");
+                        buildRockets(kit);
+                    } catch (ContainerNotFoundException e) {
+                        LOGGER.warn("Space was recreated, looking up "
+                                + "containers again!");
+                        directory.invalidate(spaceUri);
                     }
-                } catch (CountNotMetException e1) {
-                    LOGGER.info("No purchase order, create random rocket!");
-                    gotPurchase = false;
-                } catch (MzsCoreException e) {
-                    LOGGER.error("Worker has problem with space!");
-                    System.exit(1);
                 }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.info("Worker " + workerId + " was interrupted!");
+        } catch (MzsCoreException e) {
+            LOGGER.error("Worker " + workerId + " has a space problem!", e);
+            requestShutdown();
+        } finally {
+            // The material of the next batch may already be taken from the
+            // space, so the collector must not be interrupted
+            collector.shutdown();
+            returnPendingKit(nextKit);
+            backoff.unregister();
+        }
+    }
 
+    /**
+     * Wait until the worker collected the material for the next batch and
+     * return the material to the factory. The worker calls this method if
+     * he stops before he can build the batch.
+     *
+     * @param nextKit
+     *          The material for the next batch or {@code null} if the
+     *          worker does not collect material for another batch
+     */
+    private void returnPendingKit(final Future<Kit> nextKit) {
+        if (nextKit == null) {
+            return;
+        }
+        try {
+            Kit kit = nextKit.get();
+            if (kit != null) {
+                LOGGER.info("Worker " + workerId + " returns the material "
+                        + "of his next batch!");
+                returnMaterial(kit, new ArrayList<>(kit.getEffects()));
+            }
+        } catch (ExecutionException e) {
+            LOGGER.debug("Worker " + workerId + " collected no material for "
+                    + "his next batch!");
+        } catch (InterruptedException e) {
+            LOGGER.error("Worker " + workerId + " was interrupted while "
+                    + "waiting for the material of his next batch!");
+        } catch (MzsCoreException e) {
+            LOGGER.error("Worker " + workerId + " could not return the "
+                    + "material of his next batch!", e);
+        }
+    }
 
-                try {
-                    effects.clear();
-                    containerReference = capi.lookupContainer(
-                            MaterialType.Effect.toString(), spaceUri,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context);
-
-                    if (gotPurchase) {
-                        Collection<EffectColor> colors =
-                                purchase.getEffectColors();
-                        Effect effect;
-                        for (EffectColor color : colors) {
-                            Effect lindaEffectColorTemplate =
-                                    new Effect(null, null, null, null,
-                                    color);
-                            try {
-                                effect = (Effect) capi.take(
-                                        containerReference,
-                                        asList(
-                                                LindaCoordinator.newSelector(
-                                                        lindaEffectColorTemplate
-                                                )),
-                                        RequestTimeout.TRY_ONCE,
-                                        collectResourcesTransaction,
-                                        null, context).get(0);
-                                effects.add(effect);
-                            } catch (CountNotMetException e) {
-                                LOGGER.info("Not enough effect charges of "
-                                        + "color: " + color.toString());
-                                gotPurchase = false;
-                                break;
-                            }
-                        }
-                    }
-                    // if not enough effect charges of the colors needed for the
-                    // purchase are available, make a new random rocket by
-                    // filling the missing effect charges with random colors
-                    if (!gotPurchase) {
-                        int missingEffects = NUMBER_EFFECTS_NEEDED
-                                - effects.size();
-                        ArrayList<Effect> tempEffects;
-                        tempEffects = capi.take(containerReference,
-                                asList(AnyCoordinator.newSelector(
-                                        missingEffects)),
-                                RequestTimeout.TRY_ONCE,
-                                collectResourcesTransaction, null, context);
-                        effects.addAll(tempEffects);
-                    }
+    /**
+     * Take the material for a batch of rockets from the space.
+     *
+     * @return The material for the next batch of rockets or {@code null} if
+     *         the worker could not get all needed material
+     * @throws InterruptedException
+     *          If the worker was interrupted while he was waiting
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private Kit collectKit() throws InterruptedException, MzsCoreException {
+        RequestContext context = new RequestContext();
+        TransactionReference collectResourcesTransaction;
+        ContainerReference containerReference;
+        ArrayList<Purchase> purchases = new ArrayList<>();
+        boolean gotPurchase = false;
+        ArrayList<Effect> effects = new ArrayList<>();
+        ArrayList<Casing> casings;
+        ArrayList<Wood> woods;
+        ArrayList<HashMap<Propellant, Integer>> propellantsPerRocket;
+        int[] propellantQuantities;
 
-                    context.setProperty("color1", effects.get(0).getColor());
-                    context.setProperty("color2", effects.get(1).getColor());
-                    context.setProperty("color3", effects.get(2).getColor());
-
-                    containerReference = capi.lookupContainer(
-                            MaterialType.Casing.toString(),
-                            spaceUri,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context);
-                    casing = (Casing) capi.take(containerReference,
-                            null,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context).get(0);
-
-                    containerReference = capi.lookupContainer(
-                            MaterialType.Wood.toString(), spaceUri,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context);
-                    wood = (Wood) capi.take(containerReference,
-                            null,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context).get(0);
-
-                    containerReference = capi.lookupContainer(
-                            MaterialType.Propellant.toString(),
-                            spaceUri,
-                            RequestTimeout.TRY_ONCE,
-                            collectResourcesTransaction, null, context);
-
-                    propellantQuantity = randomGenerator.nextInt(
-                            UPPERQUANTITY - LOWERQUANTITY) + LOWERQUANTITY;
-
-                    int takenOpenQuantity = 0;
-                    int takenOpenPropellant = 0;
-                    int quantity = 0;
-                    int missingQuantity = propellantQuantity;
-                    propellantsWithQuantity  = new HashMap<>();
-                    while (quantity < propellantQuantity) {
-                        try {
-                            Propellant propellant = (Propellant) capi.take(
-                                    containerReference,
-                                    asList(LindaCoordinator.newSelector(
-                                            lindaTemplateOpened)),
-                                    RequestTimeout.ZERO,
-                                    collectResourcesTransaction, null,
-                                    context).get(0);
-
-                            int currentQuantity = propellant.getQuantity();
-
-                            takenOpenQuantity = takenOpenQuantity
-                                    + currentQuantity;
-                            takenOpenPropellant++;
-
-                            if (currentQuantity >= missingQuantity) {
-                                // Done with rocket
-                                quantity = quantity + missingQuantity;
-                                propellant.setQuantity(currentQuantity
-                                        - missingQuantity);
-                                currentQuantity = missingQuantity;
-                            } else {
-                                // We still need to open a new propellant
-                                // after the current one
-                                quantity = quantity + currentQuantity;
-                                missingQuantity = missingQuantity
-                                        - currentQuantity;
-                                propellant.setQuantity(0);
-                            }
-                            propellantsWithQuantity.put(propellant,
-                                    currentQuantity);
-
-                        } catch (CountNotMetException e) {
-                            // No open propellant available
-                            Propellant propellant = (Propellant) capi.take(
-                                    containerReference,
-                                    asList(LindaCoordinator.newSelector(
-                                            lindaTemplateClosed)),
-                                    RequestTimeout.ZERO,
-                                    collectResourcesTransaction,
-                                    null,
-                                    context).get(0);
-
-                            int currentQuantity = propellant.getQuantity();
-                            quantity = quantity + missingQuantity;
-
-                            propellant.setQuantity(currentQuantity
-                                    - missingQuantity);
-                            propellantsWithQuantity.put(propellant,
-                                    missingQuantity);
-
-                            context.setProperty("takenClosedPropellant", true);
-                        }
-                    }
+        // check which effect charges are available before we take anything
+        EffectInventory inventory = readEffectInventory();
 
-                    context.setProperty("takenOpenQuantity", takenOpenQuantity);
-                    context.setProperty("takenOpenPropellant",
-                            takenOpenPropellant);
-
-                    context.setProperty("gotMaterial", true);
-                    capi.commitTransaction(
-                            collectResourcesTransaction, context);
-                    LOGGER.info("Took the following Items: " + casing
-                            + " " + effects + " "
-                            + wood + " "
-                            + propellantsWithQuantity.keySet());
-                } catch (MzsTimeoutException toe) {
-                    LOGGER.debug("Can't get materials in transaction time!");
-                    Thread.sleep(WAIT_TIME_WORKER_MS);
-                    continue;
-                } catch (MzsCoreException e) {
-                    LOGGER.info("Could not get all materials!");
+        collectResourcesTransaction = capi.createTransaction(
+                TRANSACTION_TIMEOUT, spaceUri, context);
+
+        try {
+            containerReference = directory.lookup("purchase", spaceUri);
+            // only claim purchases whose effect charges are available
+            if (inventory == null) {
+                purchases = takeUpTo(containerReference, batchSize,
+                        collectResourcesTransaction, context);
+            } else {
+                purchases = takeMatchingPurchases(containerReference,
+                        inventory, collectResourcesTransaction, context);
+            }
+            gotPurchase = !purchases.isEmpty();
+            if (!gotPurchase) {
+                LOGGER.info("No purchase order, create random "
+                        + "rocket!");
+            }
+        } catch (MzsTimeoutException toe) {
+            LOGGER.debug("Can't finish in transaction time!");
+        } catch (ContainerNotFoundException e) {
+            LOGGER.warn("Space was recreated, looking up containers "
+                    + "again!");
+            directory.invalidate(spaceUri);
+        } catch (MzsCoreException e) {
+            LOGGER.error("Worker has problem with space!");
+            try {
+                capi.rollbackTransaction(collectResourcesTransaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
+            }
+            throw e;
+        }
+
+
+        try {
+            containerReference = directory.lookup(
+                    MaterialType.Effect.toString(), spaceUri);
+
+            if (gotPurchase) {
+                // take the effect charges of all purchases with one
+                // request per color
+                for (Map.Entry<EffectColor, Integer> neededColor
+                        : countEffectColors(purchases).entrySet()) {
+                    Effect lindaEffectColorTemplate =
+                            new Effect(null, null, null, null,
+                            neededColor.getKey());
                     try {
-                        capi.rollbackTransaction(collectResourcesTransaction);
-                        propellantsWithQuantity.clear();
-                        // Wait some time until we try to get new material
-                        Thread.sleep(WAIT_TIME_WORKER_MS);
-                        continue;
-                    } catch (MzsCoreException e1) {
-                        LOGGER.error("Can't rollback transaction!");
-                        System.exit(1);
+                        ArrayList<Effect> coloredEffects = capi.take(
+                                containerReference,
+                                asList(LindaCoordinator.newSelector(
+                                        lindaEffectColorTemplate,
+                                        neededColor.getValue())),
+                                RequestTimeout.TRY_ONCE,
+                                collectResourcesTransaction,
+                                null, context);
+                        effects.addAll(coloredEffects);
+                    } catch (CountNotMetException e) {
+                        LOGGER.info("Not enough effect charges of "
+                                + "color: " + neededColor.getKey());
+                        gotPurchase = false;
+                        break;
                     }
                 }
+            }
+            // if not enough effect charges of the colors needed for the
+            // purchases are available, make new random rockets by
+            // filling the missing effect charges with random colors
+            int missingEffects = NUMBER_EFFECTS_NEEDED * batchSize
+                    - effects.size();
+            if (missingEffects > 0) {
+                ArrayList<Effect> tempEffects;
+                tempEffects = capi.take(containerReference,
+                        asList(AnyCoordinator.newSelector(
+                                missingEffects)),
+                        WAIT_TIME_WORKER_MS,
+                        collectResourcesTransaction, null, context);
+                effects.addAll(tempEffects);
+            }
 
-                // if we got a purchase but created a Random rocket we write the
-                // purchase back in the container
-                if (!gotPurchase && purchase != null) {
-                    containerReference = capi.lookupContainer(
-                            "purchase",
-                            spaceUri,
-                            RequestTimeout.TRY_ONCE,
-                            null);
-                    capi.write(containerReference, RequestTimeout.TRY_ONCE,
-                            null, new Entry(purchase));
-                }
+            EffectInventory takenEffects = new EffectInventory();
+            for (Effect effect : effects) {
+                takenEffects.add(effect);
+            }
+            context.setProperty("takenEffects", takenEffects);
 
-                // Waiting time during worker produces Rocket
-                int waitingTime = randomGenerator.nextInt(
-                        UPPERBOUND - LOWERBOUND) + LOWERBOUND;
-                Thread.sleep(waitingTime);
-                Rocket producedRocket;
-                // Worker produces rocket
-                if (gotPurchase) {
-                    producedRocket = new Rocket(1, wood, casing, effects,
-                            propellantsWithQuantity, propellantQuantity,
-                            workerId, purchase);
-                } else {
-                    producedRocket = new Rocket(1, wood, casing, effects,
-                            propellantsWithQuantity, propellantQuantity,
-                            workerId);
+            containerReference = directory.lookup(
+                    MaterialType.Casing.toString(), spaceUri);
+            casings = capi.take(containerReference,
+                    asList(AnyCoordinator.newSelector(batchSize)),
+                    WAIT_TIME_WORKER_MS,
+                    collectResourcesTransaction, null, context);
+
+            containerReference = directory.lookup(
+                    MaterialType.Wood.toString(), spaceUri);
+            woods = capi.take(containerReference,
+                    asList(AnyCoordinator.newSelector(batchSize)),
+                    WAIT_TIME_WORKER_MS,
+                    collectResourcesTransaction, null, context);
+
+            propellantQuantities = new int[batchSize];
+            for (int rocket = 0; rocket < batchSize; rocket++) {
+                propellantQuantities[rocket] = randomGenerator.nextInt(
+                        UPPERQUANTITY - LOWERQUANTITY) + LOWERQUANTITY;
+            }
+            propellantsPerRocket = withdrawPropellant(propellantQuantities,
+                    collectResourcesTransaction, context);
+            if (propellantsPerRocket == null) {
+                LOGGER.info("Not enough propellant!");
+                capi.rollbackTransaction(collectResourcesTransaction);
+                waitForPropellant();
+                return null;
+            }
+
+            context.setProperty("numberRockets", batchSize);
+            context.setProperty("gotMaterial", true);
+            capi.commitTransaction(
+                    collectResourcesTransaction, context);
+            backoff.reset();
+            LOGGER.info("Took the following Items: " + casings
+                    + " " + effects + " "
+                    + woods + " "
+                    + propellantsPerRocket);
+        } catch (MzsTimeoutException toe) {
+            // We already waited inside the space for the missing
+            // material, so we start the next attempt right away
+            LOGGER.debug("Can't get materials in transaction time!");
+            try {
+                capi.rollbackTransaction(collectResourcesTransaction);
+            } catch (MzsCoreException e) {
+                LOGGER.debug("Transaction already timed out!");
+            }
+            return null;
+        } catch (ContainerNotFoundException e) {
+            LOGGER.warn("Space was recreated, looking up containers "
+                    + "again!");
+            directory.invalidate(spaceUri);
+            try {
+                capi.rollbackTransaction(collectResourcesTransaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
+            }
+            backoff.pause();
+            return null;
+        } catch (MzsCoreException e) {
+            LOGGER.info("Could not get all materials!");
+            try {
+                capi.rollbackTransaction(collectResourcesTransaction);
+                // Wait some time until we try to get new material
+                backoff.pause();
+            } catch (MzsCoreException e1) {
+                // The transaction is rolled back by the space as soon as it
+                // times out
+                LOGGER.error("Can't rollback transaction!");
+            }
+            return null;
+        }
+
+        // if we got purchases but create random rockets we write the
+        // purchases back in the container
+        if (!gotPurchase && !purchases.isEmpty()) {
+            ArrayList<Entry> purchaseEntries = new ArrayList<>();
+            for (Purchase purchase : purchases) {
+                purchaseEntries.add(new Entry(purchase));
+            }
+            containerReference = directory.lookup("purchase", spaceUri);
+            capi.write(purchaseEntries, containerReference,
+                    RequestTimeout.TRY_ONCE, null);
+            purchases.clear();
+        }
+
+        return new Kit(purchases, effects,
+                casings, woods, propellantsPerRocket,
+                propellantQuantities);
+    }
+
+    /**
+     * Build a batch of rockets and write them into the space. If there is
+     * no room for the rockets, the worker waits a bounded amount of time
+     * before he gives up. If the worker can not deliver the rockets, he
+     * returns their material to the factory.
+     *
+     * @param kit
+     *          The material used to build the rockets
+     * @throws InterruptedException
+     *          If the worker was interrupted while he was building a rocket
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void buildRockets(final Kit kit)
+            throws InterruptedException, MzsCoreException {
+        ArrayList<Rocket> rockets = new ArrayList<>();
+        // building the rockets removes the effect charges from the kit
+        ArrayList<Effect> effects = new ArrayList<>(kit.getEffects());
+        for (int rocket = 0; rocket < batchSize; rocket++) {
+            // Waiting time during worker produces Rocket
+            int waitingTime = randomGenerator.nextInt(
+                    UPPERBOUND - LOWERBOUND) + LOWERBOUND;
+            SimulationClock.get().sleep(waitingTime);
+            Rocket producedRocket;
+            // Worker produces rocket
+            if (rocket < kit.getPurchases().size()) {
+                Purchase purchase = kit.getPurchases().get(rocket);
+                ArrayList<Effect> rocketEffects = new ArrayList<>();
+                for (EffectColor color : purchase.getEffectColors()) {
+                    rocketEffects.add(removeEffect(kit.getEffects(), color));
                 }
+                producedRocket = new Rocket(1, kit.getWoods().get(rocket),
+                        kit.getCasings().get(rocket), rocketEffects,
+                        kit.getPropellantsPerRocket().get(rocket),
+                        kit.getPropellantQuantities()[rocket], workerId,
+                        purchase);
+            } else {
+                ArrayList<Effect> rocketEffects = new ArrayList<>(
+                        kit.getEffects().subList(0, NUMBER_EFFECTS_NEEDED));
+                kit.getEffects().subList(0, NUMBER_EFFECTS_NEEDED).clear();
+                producedRocket = new Rocket(1, kit.getWoods().get(rocket),
+                        kit.getCasings().get(rocket), rocketEffects,
+                        kit.getPropellantsPerRocket().get(rocket),
+                        kit.getPropellantQuantities()[rocket], workerId);
+            }
+            rockets.add(producedRocket);
+        }
 
-                wood = null;
-
-                // Worker writes the new rocket in the container
-                ContainerReference container;
-                container = capi.lookupContainer(
-                        "createdRockets",
-                        spaceUri,
-                        RequestTimeout.TRY_ONCE,
-                        null);
-                capi.write(container, RequestTimeout.TRY_ONCE, null,
-                        new Entry(producedRocket));
-
-                // write the used propellant package back if it still contains
-                // propellant
-                container = capi.lookupContainer(
-                        MaterialType.Propellant.toString(),
-                        spaceUri,
-                        RequestTimeout.TRY_ONCE,
-                        null);
-
-                for (Propellant propellant : propellantsWithQuantity.keySet()) {
-                    if (propellant.getQuantity() > 0) {
-                        capi.write(container, RequestTimeout.TRY_ONCE, null,
-                                new Entry(propellant,
-                                        newCoordinationData()));
-                    }
+        int attempts = 1;
+        while (true) {
+            try {
+                deliverRockets(rockets);
+                return;
+            } catch (ContainerFullException e) {
+                // Wait until the testers made some room in the container
+                // for created rockets
+                if (shutdown || attempts >= MAX_DELIVERY_ATTEMPTS) {
+                    LOGGER.warn("Worker " + workerId + " gives up, the "
+                            + "factory is still full!");
+                    returnMaterial(kit, effects);
+                    return;
                 }
-            } catch (InterruptedException e) {
-                System.out.println("I'm going home.");
-                core.shutdown(true);
+                LOGGER.debug("Worker " + workerId + " could not deliver "
+                        + "rockets, the factory is full!");
+                attempts++;
+                backoff.pause();
+            } catch (ContainerNotFoundException e) {
+                throw e;
             } catch (MzsCoreException e) {
-                //e.printStackTrace();
-                LOGGER.error("Worker has s space problem");
-                System.exit(1);
+                LOGGER.warn("Worker " + workerId + " could not deliver "
+                        + "rockets, returning the material!");
+                returnMaterial(kit, effects);
+                return;
             }
         }
+    }
+
+    /**
+     * Write a batch of new rockets into the container for rocket parts and
+     * their headers into the container for created rockets, where the
+     * testers pick them up. The rockets get their ids from the counter
+     * stored in the space, so the ids of all workers are unique. All changes
+     * are made inside a single transaction. The factory shows the rockets
+     * after the transaction was committed. If the container for created
+     * rockets is full, the write of the headers fails and nothing is
+     * delivered.
+     *
+     * @param rockets
+     *          The new rockets
+     * @throws ContainerFullException
+     *          If there is no room for the rockets
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void deliverRockets(final ArrayList<Rocket> rockets)
+            throws MzsCoreException {
+        TransactionReference transaction = capi.createTransaction(
+                TRANSACTION_TIMEOUT, spaceUri);
+        try {
+            ContainerReference rocketIds = directory.lookup("rocketIds",
+                    spaceUri);
+            ArrayList<Integer> counter = capi.take(rocketIds,
+                    asList(AnyCoordinator.newSelector(1)),
+                    WAIT_TIME_WORKER_MS, transaction);
+            int nextId = counter.get(0);
+            capi.write(rocketIds, RequestTimeout.TRY_ONCE, transaction,
+                    new Entry(nextId + rockets.size()));
 
+            ArrayList<Entry> parts = new ArrayList<>();
+            ArrayList<Entry> headers = new ArrayList<>();
+            for (Rocket rocket : rockets) {
+                rocket.setNewRocketId(nextId);
+                nextId++;
+                parts.add(new Entry(rocket));
+                headers.add(new Entry(new RocketHeader(rocket),
+                        FifoCoordinator.newCoordinationData()));
+            }
+            capi.write(parts, directory.lookup("rocketParts", spaceUri),
+                    RequestTimeout.TRY_ONCE, transaction);
+            capi.write(headers, directory.lookup("createdRockets", spaceUri),
+                    RequestTimeout.TRY_ONCE, transaction);
+
+            RequestContext context = new RequestContext();
+            context.setProperty("newRockets", rockets);
+            capi.commitTransaction(transaction, context);
+        } catch (MzsCoreException e) {
+            try {
+                capi.rollbackTransaction(transaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
+            }
+            throw e;
+        }
     }
 
     /**
-     * adds a shutdown hook (called before shutdown).
+     * Write the material of a batch of rockets the worker could not deliver
+     * back into the space. The propellant of the batch is merged with the
+     * rest of its package, if the rest is still in the space.
+     *
+     * @param kit
+     *          The material used to build the rockets
+     * @param effects
+     *          The effect charges of the batch
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void returnMaterial(final Kit kit, final List<Effect> effects)
+            throws MzsCoreException {
+        RequestContext context = new RequestContext();
+        EffectInventory returnedEffects = new EffectInventory();
+        for (Effect effect : effects) {
+            returnedEffects.add(effect);
+        }
+        context.setProperty("addedEffects", returnedEffects);
+
+        HashMap<Propellant, Integer> quantities = new HashMap<>();
+        for (HashMap<Propellant, Integer> propellants
+                : kit.getPropellantsPerRocket()) {
+            for (Map.Entry<Propellant, Integer> propellant
+                    : propellants.entrySet()) {
+                quantities.merge(propellant.getKey(), propellant.getValue(),
+                        Integer::sum);
+            }
+        }
+
+        TransactionReference transaction = capi.createTransaction(
+                TRANSACTION_TIMEOUT, spaceUri, context);
+        try {
+            ArrayList<Propellant> packages = mergePropellant(quantities,
+                    transaction, context);
+            writeBack(kit.getPurchases(), "purchase", transaction);
+            writeBack(effects, MaterialType.Effect.toString(), transaction);
+            writeBack(kit.getCasings(), MaterialType.Casing.toString(),
+                    transaction);
+            writeBack(kit.getWoods(), MaterialType.Wood.toString(),
+                    transaction);
+            writeBack(packages, MaterialType.Propellant.toString(),
+                    transaction);
+            capi.commitTransaction(transaction, context);
+        } catch (MzsCoreException e) {
+            try {
+                capi.rollbackTransaction(transaction);
+            } catch (MzsCoreException e1) {
+                LOGGER.debug("Can't rollback transaction!");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Merge the propellant of an undelivered batch with the rest of its
+     * packages. The dispenser already wrote the rest of every opened package
+     * back, so the rest is taken and returned together with the unused
+     * propellant as a single package with the same id.
+     *
+     * @param quantities
+     *          The quantity (in grams) taken from every package
+     * @param transaction
+     *          The transaction used to take the rest of the packages
+     * @param context
+     *          The context of the transaction. It records the taken rest, so
+     *          the factory can correct its counters after the commit.
+     * @return The packages that should be written back
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private ArrayList<Propellant> mergePropellant(
+            final HashMap<Propellant, Integer> quantities,
+            final TransactionReference transaction,
+            final RequestContext context) throws MzsCoreException {
+        ContainerReference container = directory.lookup(
+                MaterialType.Propellant.toString(), spaceUri);
+        ArrayList<Propellant> packages = new ArrayList<>();
+        int mergedPackages = 0;
+        int mergedQuantity = 0;
+        for (Map.Entry<Propellant, Integer> quantity
+                : quantities.entrySet()) {
+            Propellant propellant = quantity.getKey();
+            int returnedQuantity = quantity.getValue();
+            try {
+                ArrayList<Propellant> rest = capi.take(container,
+                        asList(Propellant.newIdSelector(propellant.getID())),
+                        RequestTimeout.TRY_ONCE, transaction);
+                if (!rest.isEmpty()) {
+                    mergedPackages++;
+                    mergedQuantity = mergedQuantity
+                            + rest.get(0).getQuantity();
+                    returnedQuantity = returnedQuantity
+                            + rest.get(0).getQuantity();
+                }
+            } catch (CountNotMetException e) {
+                LOGGER.debug("The rest of " + propellant + " is not in "
+                        + "the space!");
+            }
+            propellant.setQuantity(returnedQuantity);
+            packages.add(propellant);
+        }
+        context.setProperty("takenOpenPropellant", mergedPackages);
+        context.setProperty("takenOpenQuantity", mergedQuantity);
+        return packages;
+    }
+
+    /**
+     * Write values back into a container of the space.
+     *
+     * @param values
+     *          The values written into the container
+     * @param containerName
+     *          The name of the container
+     * @param transaction
+     *          The transaction used to write the values
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void writeBack(final List<? extends Serializable> values,
+                           final String containerName,
+                           final TransactionReference transaction)
+            throws MzsCoreException {
+        if (values.isEmpty()) {
+            return;
+        }
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (Serializable value : values) {
+            entries.add(new Entry(value));
+        }
+        capi.write(entries, directory.lookup(containerName, spaceUri),
+                RequestTimeout.TRY_ONCE, transaction);
+    }
+
+    /**
+     * Read the number of available effect charges per color. The inventory
+     * is read without a transaction, so it is only a hint and might already
+     * be outdated. If the factory is replacing the inventory, the worker
+     * waits until the new copy is committed.
+     *
+     * @return The effect inventory of the factory or {@code null} if the
+     *         inventory could not be read
+     */
+    private EffectInventory readEffectInventory() {
+        try {
+            ContainerReference container = directory.lookup(
+                    "effectInventory", spaceUri);
+            ArrayList<EffectInventory> inventories = capi.read(container,
+                    asList(AnyCoordinator.newSelector(1)),
+                    INVENTORY_WAIT_MS, null);
+            return inventories.get(0);
+        } catch (MzsCoreException e) {
+            LOGGER.debug("Could not read the effect inventory!");
+            return null;
+        }
+    }
+
+    /**
+     * Take up to {@code batchSize} purchases that can be built with the
+     * available effect charges. Every purchase is only taken if the effect
+     * charges for all its colors are available, so a purchase is never
+     * claimed by a worker that cannot build it.
+     *
+     * @param container
+     *          The container storing the purchases
+     * @param inventory
+     *          The effect charges that are available. The effect charges of
+     *          the taken purchases are removed from this inventory.
+     * @param transaction
+     *          The transaction used to take the purchases
+     * @param context
+     *          The request context used to take the purchases
+     * @return The taken purchases. The list is empty if no purchase can be
+     *         built.
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private ArrayList<Purchase> takeMatchingPurchases(
+            final ContainerReference container,
+            final EffectInventory inventory,
+            final TransactionReference transaction,
+            final RequestContext context) throws MzsCoreException {
+        ArrayList<Purchase> purchases = new ArrayList<>();
+        try {
+            while (purchases.size() < batchSize) {
+                ArrayList<Purchase> matchingPurchases = capi.take(container,
+                        asList(Purchase.newMatchingSelector(inventory)),
+                        RequestTimeout.TRY_ONCE, transaction, null, context);
+                Purchase purchase = matchingPurchases.get(0);
+                inventory.reserve(countEffectColors(singletonList(purchase)));
+                purchases.add(purchase);
+            }
+        } catch (CountNotMetException e) {
+            LOGGER.debug("No further purchase matches the effect charges!");
+        }
+        return purchases;
+    }
+
+    /**
+     * Take up to {@code count} entries from a container. If the container
+     * does not contain enough entries we try to take a single entry.
+     *
+     * @param container
+     *          The container from which the entries are taken
+     * @param count
+     *          The maximum number of entries that should be taken
+     * @param transaction
+     *          The transaction used to take the entries
+     * @param context
+     *          The request context used to take the entries
+     * @param <T>
+     *          The type of the entries stored in the container
+     * @return The taken entries. The list is empty if the container does not
+     *         contain any entry.
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private <T extends Serializable> ArrayList<T> takeUpTo(
+            final ContainerReference container, final int count,
+            final TransactionReference transaction,
+            final RequestContext context) throws MzsCoreException {
+        try {
+            return capi.take(container,
+                    asList(AnyCoordinator.newSelector(count)),
+                    RequestTimeout.TRY_ONCE, transaction, null, context);
+        } catch (CountNotMetException e) {
+            if (count == 1) {
+                return new ArrayList<>();
+            }
+        }
+        return takeUpTo(container, 1, transaction, context);
+    }
+
+    /**
+     * Count how many effect charges of each color are needed for the given
+     * purchases.
+     *
+     * @param purchases
+     *          The purchases for which rockets should be built
+     * @return A map containing the number of needed effects for each color
+     */
+    private static EnumMap<EffectColor, Integer> countEffectColors(
+            final List<Purchase> purchases) {
+        EnumMap<EffectColor, Integer> colors =
+                new EnumMap<>(EffectColor.class);
+        for (Purchase purchase : purchases) {
+            for (EffectColor color : purchase.getEffectColors()) {
+                if (colors.containsKey(color)) {
+                    colors.put(color, colors.get(color) + 1);
+                } else {
+                    colors.put(color, 1);
+                }
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * Remove the first effect charge with the given color from a list.
+     *
+     * @param effects
+     *          The list of effect charges
+     * @param color
+     *          The color of the effect charge that should be removed
+     * @return The removed effect charge
+     */
+    private static Effect removeEffect(final ArrayList<Effect> effects,
+                                       final EffectColor color) {
+        for (int index = 0; index < effects.size(); index++) {
+            if (effects.get(index).getColor() == color) {
+                return effects.remove(index);
+            }
+        }
+        throw new IllegalStateException("No effect charge of color " + color);
+    }
+
+    /**
+     * Withdraw the propellant needed for a batch of rockets. The propellant
+     * dispenser allocates the propellant inside the transaction and writes
+     * the packages that still contain propellant back to the space, so the
+     * packages never leave the space after the transaction is committed.
+     *
+     * @param quantities
+     *          The quantity of propellant (in grams) needed for each rocket
+     * @param transaction
+     *          The transaction used to withdraw the propellant
+     * @param context
+     *          The request context of the transaction. The dispenser results
+     *          needed to update the labels of the factory are stored in this
+     *          context.
+     * @return The propellant packages together with the used quantity for
+     *         each rocket or {@code null} if there is not enough propellant
+     *         in the space
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private ArrayList<HashMap<Propellant, Integer>> withdrawPropellant(
+            final int[] quantities, final TransactionReference transaction,
+            final RequestContext context) throws MzsCoreException {
+        ContainerReference container = directory.lookup(
+                MaterialType.Propellant.toString(), spaceUri);
+        PropellantWithdrawal withdrawal = new PropellantWithdrawal(quantities);
+        dispenser.dispense(withdrawal, container, transaction);
+        if (!withdrawal.isSatisfied()) {
+            return null;
+        }
+
+        if (withdrawal.getTakenClosedPropellant() > 0) {
+            context.setProperty("takenClosedPropellant",
+                    withdrawal.getTakenClosedPropellant());
+        }
+        context.setProperty("takenOpenQuantity",
+                withdrawal.getTakenOpenQuantity());
+        context.setProperty("takenOpenPropellant",
+                withdrawal.getTakenOpenPropellant());
+        return withdrawal.getAllocations();
+    }
+
+    /**
+     * Wait inside the space until a closed propellant package is available.
+     * The method returns after {@code WAIT_TIME_WORKER_MS} milliseconds if no
+     * package arrives.
+     *
+     * @throws MzsCoreException
+     *          If there was a problem with the space
+     */
+    private void waitForPropellant() throws MzsCoreException {
+        ContainerReference container = directory.lookup(
+                MaterialType.Propellant.toString(), spaceUri);
+        try {
+            capi.read(container, asList(LindaCoordinator.newSelector(
+                    LINDA_TEMPLATE_CLOSED)), WAIT_TIME_WORKER_MS, null);
+        } catch (MzsTimeoutException e) {
+            LOGGER.debug("No new propellant package arrived!");
+        }
+    }
+
+    /**
+     * adds a shutdown hook (called before shutdown). The hook tells all
+     * workers to stop, waits until they finished their current rockets and
+     * then shuts down the core.
      */
     private static void addShutdownHook() {
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -398,15 +1001,155 @@ public final class Worker {
             public void run() {
                 System.out.println("I'm packing my stuff together.");
                 shutdown = true;
+                if (workers == null) {
+                    // The process stopped before it started any workers
+                    if (core != null) {
+                        stopCore();
+                    }
+                    return;
+                }
+                workers.shutdown();
                 try {
-                    Thread.sleep(WAIT_TIME_TO_SHUTDOWN);
+                    if (!workers.awaitTermination(shutdownWaitMs,
+                            TimeUnit.MILLISECONDS)) {
+                        workers.shutdownNow();
+                    }
                 } catch (InterruptedException e) {
                     LOGGER.error("I was interrupted while trying to sleep. "
                             + "How rude!");
                 }
-                core.shutdown(true);
+                stopCore();
                 System.out.println("I'm going home.");
             }
         });
     }
+
+    /**
+     * Tell all workers of the process to stop after their current batch of
+     * rockets. A worker calls this method instead of terminating the process
+     * if he can not continue his work. The main thread shuts down the core
+     * as soon as all workers stopped.
+     */
+    private static void requestShutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * Shut down the mozart spaces core of the process, unless this was
+     * already done.
+     */
+    private static synchronized void stopCore() {
+        if (!coreStopped) {
+            coreStopped = true;
+            core.shutdown(true);
+        }
+    }
+
+    /**
+     * This class stores the material a worker collected for a batch of
+     * rockets.
+     */
+    private static final class Kit {
+
+        /** The purchases for which the rockets are built. */
+        private final ArrayList<Purchase> purchases;
+        /** The taken effect charges. */
+        private final ArrayList<Effect> effects;
+        /** The taken casings. */
+        private final ArrayList<Casing> casings;
+        /** The taken wood. */
+        private final ArrayList<Wood> woods;
+        /** The propellant packages and quantities used by each rocket. */
+        private final ArrayList<HashMap<Propellant, Integer>>
+                propellantsPerRocket;
+        /** The quantity of propellant used by each rocket. */
+        private final int[] propellantQuantities;
+
+        /**
+         * Create a new kit.
+         *
+         * @param purchases
+         *          The purchases for which the rockets are built. The first
+         *          rockets of the batch are built for these purchases, the
+         *          others are random rockets.
+         * @param effects
+         *          The taken effect charges
+         * @param casings
+         *          The taken casings
+         * @param woods
+         *          The taken wood
+         * @param propellantsPerRocket
+         *          The propellant packages and quantities used by each rocket
+         * @param propellantQuantities
+         *          The quantity of propellant used by each rocket
+         */
+        Kit(final ArrayList<Purchase> purchases,
+            final ArrayList<Effect> effects,
+            final ArrayList<Casing> casings,
+            final ArrayList<Wood> woods,
+            final ArrayList<HashMap<Propellant, Integer>>
+                    propellantsPerRocket,
+            final int[] propellantQuantities) {
+            this.purchases = purchases;
+            this.effects = effects;
+            this.casings = casings;
+            this.woods = woods;
+            this.propellantsPerRocket = propellantsPerRocket;
+            this.propellantQuantities = propellantQuantities;
+        }
+
+        /**
+         * Return the purchases of the batch.
+         *
+         * @return The purchases for which the rockets are built
+         */
+        ArrayList<Purchase> getPurchases() {
+            return purchases;
+        }
+
+        /**
+         * Return the effect charges of the batch.
+         *
+         * @return The taken effect charges
+         */
+        ArrayList<Effect> getEffects() {
+            return effects;
+        }
+
+        /**
+         * Return the casings of the batch.
+         *
+         * @return The taken casings
+         */
+        ArrayList<Casing> getCasings() {
+            return casings;
+        }
+
+        /**
+         * Return the wood of the batch.
+         *
+         * @return The taken wood
+         */
+        ArrayList<Wood> getWoods() {
+            return woods;
+        }
+
+        /**
+         * Return the propellant used by each rocket of the batch.
+         *
+         * @return The propellant packages and quantities used by each rocket
+         */
+        ArrayList<HashMap<Propellant, Integer>> getPropellantsPerRocket() {
+            return propellantsPerRocket;
+        }
+
+        /**
+         * Return the quantity of propellant used by each rocket.
+         *
+         * @return The quantity of propellant (in grams) for each rocket
+         */
+        int[] getPropellantQuantities() {
+            return propellantQuantities;
+        }
+    }
 }
@@ -1,9 +1,9 @@
 package org.falafel;
 
+import org.mozartspaces.capi3.ContainerNotFoundException;
 import org.mozartspaces.capi3.LindaCoordinator;
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
-import org.mozartspaces.core.DefaultMzsCore;
 import org.mozartspaces.core.Entry;
 import org.mozartspaces.core.MzsConstants;
 import org.mozartspaces.core.MzsCore;
@@ -54,35 +54,43 @@ public class WriteFinishedPurchasesToBuyer extends Thread {
      * Start the writer.
      */
     public final void run() {
+        MzsCore core = ClientCorePool.get().acquire(buyerSpaceUri);
+        try {
+            ship(new Capi(core));
+        } finally {
+            ClientCorePool.get().release(buyerSpaceUri);
+        }
+    }
 
-        MzsCore core = DefaultMzsCore.newInstanceWithoutSpace();
-        Capi capi = new Capi(core);
-        ArrayList<Rocket> rockets;
+    /**
+     * Move the rockets of the purchase to the space of the buyer.
+     *
+     * @param capi
+     *          The API used to access the spaces
+     */
+    private void ship(final Capi capi) {
+        ArrayList<RocketHeader> rockets;
 
-        Purchase purchaseTemplate = new Purchase(
-                purchase.getBuyerId().intValue(),
-                purchase.getPurchaseId().intValue(),
-                null, null, null, null, null);
-        Rocket rocketTemplate = new Rocket(null, null, null, null, null,
-                null, null, purchaseTemplate);
+        RocketHeader rocketTemplate = new RocketHeader(
+                purchase.getBuyerIdValue(),
+                purchase.getPurchaseIdValue());
 
+        ContainerDirectory directory = FireWorks.getContainerDirectory();
         ContainerReference buyerContainer;
         ContainerReference fireWorksContainer;
 
         System.out.println("Shipping to buyer: "
-                + purchase.getBuyerId().intValue() + " purchase: "
-                + purchase.getPurchaseId().intValue() + " starts!");
+                + purchase.getBuyerIdValue() + " purchase: "
+                + purchase.getPurchaseIdValue() + " starts!");
         try {
-            buyerContainer = capi.lookupContainer("rockets",
-                    buyerSpaceUri, MzsConstants.RequestTimeout.TRY_ONCE, null);
+            buyerContainer = directory.lookup("rockets", buyerSpaceUri);
         } catch (MzsCoreException e) {
             LOGGER.info("Can not find buyer space!");
             return;
         }
         try {
-            fireWorksContainer = capi.lookupContainer("orderedRockets",
-                    fireWorksSpaceUri, MzsConstants.RequestTimeout.TRY_ONCE,
-                    null);
+            fireWorksContainer = directory.lookup("orderedRockets",
+                    fireWorksSpaceUri);
         } catch (MzsCoreException e) {
             LOGGER.error("Can not find orderedRocket container in the "
                     + "FireWorks space!");
@@ -103,15 +111,18 @@ public class WriteFinishedPurchasesToBuyer extends Thread {
         }
 
         try {
-            for (Rocket rocket : rockets) {
+            for (RocketHeader rocket : rockets) {
                 capi.write(buyerContainer, MzsConstants.RequestTimeout.TRY_ONCE,
-                        null, new Entry(rocket));
+                        null, new Entry(FireWorks.loadRocket(rocket)));
             }
+        } catch (ContainerNotFoundException e) {
+            // The buyer restarted his space since the last shipment
+            LOGGER.error("Can't write to buyer space!");
+            directory.invalidate(buyerSpaceUri);
         } catch (MzsCoreException e) {
                 LOGGER.error("Can't write to buyer space!");
         }
         purchase.setStatusToShipped();
         FireWorks.updatePurchaseTable(purchase);
-        core.shutdown(true);
     }
 }
@@ -2,7 +2,6 @@ package org.falafel;
 
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
-import org.mozartspaces.core.DefaultMzsCore;
 import org.mozartspaces.core.Entry;
 import org.mozartspaces.core.MzsConstants;
 import org.mozartspaces.core.MzsCore;
@@ -49,12 +48,13 @@ public class WritePurchasesToContainer extends Thread {
      */
     public final void run() {
 
-        MzsCore core = DefaultMzsCore.newInstanceWithoutSpace();
+        MzsCore core = ClientCorePool.get().acquire(spaceUri);
         Capi capi = new Capi(core);
 
         try {
-            ContainerReference container = capi.lookupContainer("purchase",
-                spaceUri, MzsConstants.RequestTimeout.TRY_ONCE, null);
+            ContainerReference container =
+                    FireWorks.getContainerDirectory().lookup("purchase",
+                            spaceUri);
 
             for (int index = 1;
                  index < purchase.getNumberRocketsProperty().intValue();
@@ -67,6 +67,6 @@ public class WritePurchasesToContainer extends Thread {
                 LOGGER.error("Can't write purchases to space!");
         }
 
-        core.shutdown(true);
+        ClientCorePool.get().release(spaceUri);
     }
 }